@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import test_bench.TreeFactory;
+
+/**
+ * Benchmark Runner
+ *
+ * Sweeps TreeBenchmark over a range of thread counts.  JMH doesn't allow the
+ * thread count to be a @Param, so this runs one JMH invocation per thread count
+ * and passes the count along as the "threads" parameter to label the results.
+ * Single-threaded trees are only run with one thread.  The GC profiler is
+ * always enabled so that allocation rates are reported next to throughput.
+ *
+ * Usage: BenchmarkRunner [threads=1,2,4,8] [tree=A,B] [prefill=N] [keyRange=N]
+ * [mix=I/R/C,...] [disjoint=false,true]
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * @param args Command line arguments, see the class description
+	 */
+	public static void main(String[] args) throws RunnerException {
+
+		String[] threadCounts = {"1", "2", "4", "8"};
+		String[] trees = null;
+		List<String[]> params = new ArrayList<String[]>();
+
+		for(String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if(keyValue.length != 2) {
+				System.err.println("Invalid argument: " + arg);
+				System.exit(1);
+			}
+			if(keyValue[0].equals("threads"))
+				threadCounts = keyValue[1].split(",");
+			else if(keyValue[0].equals("tree"))
+				trees = keyValue[1].split(",");
+			else
+				params.add(keyValue);
+		}
+		if(trees == null) {
+			trees = new String[TreeFactory.values().length];
+			for(int i = 0; i < trees.length; i++)
+				trees[i] = TreeFactory.values()[i].name();
+		}
+
+		for(String threadCount : threadCounts) {
+			int numThreads = Integer.parseInt(threadCount);
+			List<String> runnable = new ArrayList<String>();
+			for(String tree : trees) {
+				if(numThreads == 1 || TreeFactory.valueOf(tree).isThreadSafe())
+					runnable.add(tree);
+			}
+			if(runnable.isEmpty())
+				continue;
+
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.include(TreeBenchmark.class.getSimpleName())
+					.threads(numThreads)
+					.param("threads", threadCount)
+					.param("tree", runnable.toArray(new String[0]))
+					.addProfiler(GCProfiler.class);
+			for(String[] param : params)
+				options = options.param(param[0], param[1].split(","));
+			new Runner(options.build()).run();
+		}
+	}
+}
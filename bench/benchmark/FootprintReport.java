@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import concurrent_tree.ConcurrentBinaryTree;
+import concurrent_tree.LockableNode;
+import test_bench.TreeFactory;
+
+/**
+ * Footprint Report
+ *
+ * Measures the heap footprint of each tree with JOL (which must be on the
+ * classpath, along with the JMH jars the other benchmark classes need).  Every
+ * tree is filled with the same random keys and its object graph is walked to
+ * report the bytes per key, both in total and excluding the Integer keys
+ * themselves.  Also prints the layout of LockableNode next to the footprint
+ * of an uncontended ReentrantLock, which is what every node of the
+ * fine-grained locking tree used to carry.
+ *
+ * Trees which own threads (DELEGATED) are skipped, since their object graph
+ * reaches the whole runtime through the server thread.
+ *
+ * Usage: FootprintReport [keys=1000000] [tree=A,B]
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class FootprintReport {
+
+	/**
+	 * @param args Command line arguments, see the class description
+	 */
+	public static void main(String[] args) {
+
+		int keys = 1000000;
+		String[] trees = null;
+		ConcurrentBinaryTree<Integer> tree = null;
+		GraphLayout layout = null;
+		Random rand = null;
+		long total = 0, keyBytes = 0;
+
+		for(String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if(keyValue.length != 2) {
+				System.err.println("Invalid argument: " + arg);
+				System.exit(1);
+			}
+			if(keyValue[0].equals("keys"))
+				keys = Integer.parseInt(keyValue[1]);
+			else if(keyValue[0].equals("tree"))
+				trees = keyValue[1].split(",");
+		}
+		if(trees == null) {
+			trees = new String[TreeFactory.values().length];
+			for(int i = 0; i < trees.length; i++)
+				trees[i] = TreeFactory.values()[i].name();
+		}
+
+		System.out.println(ClassLayout.parseClass(LockableNode.class)
+				.toPrintable());
+		System.out.println("Uncontended ReentrantLock: " +
+				GraphLayout.parseInstance(new ReentrantLock()).totalSize() +
+				" bytes\n");
+
+		System.out.println(String.format("%-22s %12s %12s %12s", "tree",
+				"total MB", "bytes/key", "w/o keys"));
+		for(String name : trees) {
+			if(name.equals("DELEGATED"))
+				continue;
+			tree = TreeFactory.valueOf(name).create(Integer.MAX_VALUE);
+			rand = new Random(42);
+			while(tree.size() < keys)
+				tree.insert(rand.nextInt());
+			layout = GraphLayout.parseInstance(tree);
+			total = layout.totalSize();
+			keyBytes = layout.getClassSizes().count(Integer.class);
+			System.out.println(String.format("%-22s %12.1f %12.1f %12.1f",
+					name, total / 1e6, (double)total / keys,
+					(double)(total - keyBytes) / keys));
+			tree = null;
+			layout = null;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package benchmark;
+
+import concurrent_tree.LockFreeBinaryTree;
+import concurrent_tree.LongLockFreeBinaryTree;
+import concurrent_tree.OffHeapLongBinaryTree;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Long Key Benchmark
+ *
+ * Compares the primitive LongLockFreeBinaryTree against the generic
+ * LockFreeBinaryTree storing boxed Longs, using the same prefill, key range and
+ * operation mix parameters as TreeBenchmark.  The "boxed" benchmark pays for
+ * boxing each random key, just like callers of the generic tree do.  The
+ * OffHeapLongBinaryTree, which keeps its nodes outside of the heap, is measured
+ * with the same workload.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongKeyBenchmark {
+
+	/**
+	 * Benchmark parameters.
+	 */
+	@Param({"100000"})
+	public int prefill;
+
+	@Param({"200000"})
+	public int keyRange;
+
+	/**
+	 * Percentage of inserts, removes and contains (in that order).
+	 */
+	@Param({"20/20/60"})
+	public String mix;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	LockFreeBinaryTree<Long> boxedTree;
+	LongLockFreeBinaryTree primitiveTree;
+	OffHeapLongBinaryTree offHeapTree;
+	int insertBound;
+	int removeBound;
+
+	/**
+	 * Per-thread state holding each benchmark thread's random number generator.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		SplittableRandom rand;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			rand = new SplittableRandom();
+		}
+	}
+
+	/**
+	 * Creates and prefills the boxed, primitive and off-heap trees with the
+	 * same keys.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		SplittableRandom rand = new SplittableRandom(42);
+		String[] ratios = mix.split("/");
+		int inserted = 0;
+		long key = 0;
+
+		insertBound = Integer.parseInt(ratios[0].trim());
+		removeBound = insertBound + Integer.parseInt(ratios[1].trim());
+
+		boxedTree = new LockFreeBinaryTree<Long>();
+		primitiveTree = new LongLockFreeBinaryTree();
+		offHeapTree = new OffHeapLongBinaryTree(keyRange);
+		while(inserted < prefill) {
+			key = rand.nextInt(keyRange);
+			if(primitiveTree.insert(key)) {
+				boxedTree.insert(key);
+				offHeapTree.insert(key);
+				inserted++;
+			}
+		}
+	}
+
+	@Benchmark
+	public Object boxed(ThreadState state) {
+
+		int op = state.rand.nextInt(100);
+		Long key = (long)state.rand.nextInt(keyRange);
+
+		if(op < insertBound)
+			return boxedTree.insert(key);
+		else if(op < removeBound)
+			return boxedTree.remove(key);
+		else
+			return boxedTree.contains(key);
+	}
+
+	@Benchmark
+	public boolean primitive(ThreadState state) {
+
+		int op = state.rand.nextInt(100);
+		long key = state.rand.nextInt(keyRange);
+
+		if(op < insertBound)
+			return primitiveTree.insert(key);
+		else if(op < removeBound)
+			return primitiveTree.remove(key);
+		else
+			return primitiveTree.contains(key);
+	}
+
+	@Benchmark
+	public boolean offHeap(ThreadState state) {
+
+		int op = state.rand.nextInt(100);
+		long key = state.rand.nextInt(keyRange);
+
+		if(op < insertBound)
+			return offHeapTree.insert(key);
+		else if(op < removeBound)
+			return offHeapTree.remove(key);
+		else
+			return offHeapTree.contains(key);
+	}
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import concurrent_tree.ConcurrentBinaryTree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+import test_bench.TreeFactory;
+
+/**
+ * Sorted Insert Benchmark
+ *
+ * Measures insert throughput when keys arrive in increasing order, as they do
+ * for timestamp- or sequence-based IDs.  Every iteration starts from a fresh
+ * tree prefilled with the keys [0, prefill), and all threads then insert the
+ * following keys in order from a shared counter.  Trees that don't rebalance
+ * degenerate into linked lists under this workload, so their throughput falls
+ * as prefill grows, while a balanced tree should stay roughly flat.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedInsertBenchmark {
+
+	/**
+	 * Benchmark parameters.
+	 */
+	@Param({"FINE_GRAINED", "LOCK_FREE", "RELAXED_BALANCE"})
+	public String tree;
+
+	@Param({"1000", "10000"})
+	public int prefill;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	ConcurrentBinaryTree<Integer> instance;
+	AtomicInteger nextKey;
+
+	/**
+	 * Creates and prefills a new tree for every iteration, so that each
+	 * iteration starts from the same tree size.
+	 */
+	@Setup(Level.Iteration)
+	public void setUp() {
+		instance = TreeFactory.valueOf(tree).create(Integer.MAX_VALUE);
+		for(int i = 0; i < prefill; i++)
+			instance.insert(i);
+		nextKey = new AtomicInteger(prefill);
+	}
+
+	@Benchmark
+	public boolean insert() {
+		return instance.insert(nextKey.getAndIncrement());
+	}
+}
@@ -0,0 +1,170 @@
+package benchmark;
+
+import concurrent_tree.ConcurrentBinaryTree;
+import concurrent_tree.DelegatedBinaryTree;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import test_bench.TreeFactory;
+
+/**
+ * Tree Benchmark
+ *
+ * JMH throughput benchmark for the ConcurrentBinaryTree implementations.  Every
+ * trial gets a freshly created tree which is prefilled with the same number of
+ * random keys, so runs at different thread counts all start from the same tree
+ * size.  Each benchmark invocation performs a single insert, remove or contains
+ * on a random key drawn from [0, keyRange), with the operation picked according
+ * to the configured mix.  With disjoint=true every thread instead draws its keys
+ * from its own slice of the key range, so threads never touch the same keys
+ * and only contend where their paths through the tree meet near the root.
+ *
+ * The thread count is handled by JMH itself (-t), so the "threads" parameter is
+ * only there to label the results; use BenchmarkRunner to sweep both together.
+ * Trees which aren't thread safe (SEQUENTIAL) fail their trial when run with
+ * more than one thread, and BenchmarkRunner only runs them with one.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+
+	/**
+	 * Benchmark parameters.
+	 */
+	@Param({"SEQUENTIAL", "FINE_GRAINED", "FINE_GRAINED_REENTRANT",
+		"FINE_GRAINED_TTAS", "FINE_GRAINED_CLH", "FINE_GRAINED_MCS",
+		"LOCK_FREE", "FLAT_COMBINING", "RELAXED_BALANCE", "OPTIMISTIC",
+		"SHARDED", "PERSISTENT", "BPLUS", "DELEGATED"})
+	public String tree;
+
+	@Param({"1"})
+	public int threads;
+
+	@Param({"100000"})
+	public int prefill;
+
+	@Param({"200000"})
+	public int keyRange;
+
+	/**
+	 * Percentage of inserts, removes and contains (in that order).
+	 */
+	@Param({"50/50/0", "20/20/60", "5/5/90"})
+	public String mix;
+
+	/**
+	 * True if every thread works on its own slice of the key range.
+	 */
+	@Param({"false"})
+	public boolean disjoint;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	ConcurrentBinaryTree<Integer> instance;
+	int insertBound;
+	int removeBound;
+
+	/**
+	 * Per-thread state holding each benchmark thread's random number generator
+	 * and the part of the key range it draws keys from.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		SplittableRandom rand;
+		int firstKey;
+		int numKeys;
+
+		@Setup(Level.Trial)
+		public void setUp(TreeBenchmark benchmark, ThreadParams params) {
+			int index = params.getThreadIndex();
+			int count = params.getThreadCount();
+
+			rand = new SplittableRandom();
+			if(benchmark.disjoint) {
+				firstKey = (int)((long)benchmark.keyRange * index / count);
+				numKeys = (int)((long)benchmark.keyRange * (index + 1) /
+						count) - firstKey;
+			} else {
+				firstKey = 0;
+				numKeys = benchmark.keyRange;
+			}
+		}
+	}
+
+	/**
+	 * Creates and prefills a new tree for the trial.
+	 *
+	 * @param params The parameters of the run, holding the real thread count
+	 */
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkParams params) {
+
+		TreeFactory factory = TreeFactory.valueOf(tree);
+		SplittableRandom rand = new SplittableRandom(42);
+		String[] ratios = mix.split("/");
+		int inserted = 0;
+
+		if(!factory.isThreadSafe() && params.getThreads() > 1)
+			throw new IllegalArgumentException(tree +
+					" can only be benchmarked with a single thread");
+		if(ratios.length != 3)
+			throw new IllegalArgumentException("Invalid operation mix: " + mix);
+		if(prefill > keyRange)
+			throw new IllegalArgumentException("Cannot prefill " + prefill +
+					" keys from a key range of " + keyRange);
+
+		insertBound = Integer.parseInt(ratios[0].trim());
+		removeBound = insertBound + Integer.parseInt(ratios[1].trim());
+		if(removeBound + Integer.parseInt(ratios[2].trim()) != 100)
+			throw new IllegalArgumentException("Operation mix must add up to " +
+					"100: " + mix);
+
+		instance = factory.create(keyRange);
+		while(inserted < prefill) {
+			if(instance.insert(rand.nextInt(keyRange)))
+				inserted++;
+		}
+	}
+
+	/**
+	 * Stops the server thread of a delegated tree.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if(instance instanceof DelegatedBinaryTree)
+			((DelegatedBinaryTree<Integer>)instance).close();
+	}
+
+	/**
+	 * Performs a single randomly chosen operation on a random key.
+	 *
+	 * @param state The calling thread's state
+	 * @return The result of the operation, so that it isn't optimized away
+	 */
+	@Benchmark
+	public Object operation(ThreadState state) {
+
+		int op = state.rand.nextInt(100);
+		Integer key = state.firstKey + state.rand.nextInt(state.numKeys);
+
+		if(op < insertBound)
+			return instance.insert(key);
+		else if(op < removeBound)
+			return instance.remove(key);
+		else
+			return instance.contains(key);
+	}
+}
@@ -0,0 +1,206 @@
+package concurrent_tree;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Abstract Binary Tree Map
+ *
+ * Implements the ConcurrentBinaryTreeMap operations on top of a concurrent
+ * binary tree of MapEntry objects.  The tree is only modified when a key is
+ * inserted or removed; every update of an existing key is a compare-and-set of
+ * the value held by the key's entry.  Subclasses provide the three tree
+ * operations the map needs.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <K> The key type, which must implement the Comparable interface
+ * @param <V> The value type
+ */
+abstract class AbstractBinaryTreeMap<K extends Comparable<? super K>, V>
+		implements ConcurrentBinaryTreeMap<K, V> {
+
+	/**
+	 * Returns the entry in the tree with the same key as the passed entry.
+	 * @param probe An entry holding the key to search for
+	 * @return The entry in the tree, or null if there is none
+	 */
+	abstract MapEntry<K, V> find(MapEntry<K, V> probe);
+
+	/**
+	 * Inserts a new entry into the tree.
+	 * @param entry The entry to insert
+	 * @return True if the entry was inserted, false if the tree already holds
+	 * an entry with the same key
+	 */
+	abstract boolean insertEntry(MapEntry<K, V> entry);
+
+	/**
+	 * Removes an entry whose value has been replaced by the REMOVED tombstone
+	 * from the tree.  Must only remove that exact entry and not another entry
+	 * with the same key.
+	 * @param entry The entry to unlink
+	 */
+	abstract void unlink(MapEntry<K, V> entry);
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(K key) {
+
+		MapEntry<K, V> entry = find(new MapEntry<K, V>(key, null));
+		Object value = null;
+
+		if(entry == null)
+			return null;
+		value = entry.value;
+		return (value == MapEntry.REMOVED) ? null : (V)value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return put(key, value, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		return put(key, value, true);
+	}
+
+	/**
+	 * Shared implementation of put and putIfAbsent.
+	 *
+	 * @param key The key to insert or update
+	 * @param value The new value
+	 * @param onlyIfAbsent True if an existing value should not be replaced
+	 * @return The previous value associated with the key, or null if the key
+	 * wasn't in the map
+	 */
+	@SuppressWarnings("unchecked")
+	private V put(K key, V value, boolean onlyIfAbsent) {
+
+		MapEntry<K, V> newEntry = null;
+		MapEntry<K, V> entry = null;
+		Object oldValue = null;
+
+		if(value == null)
+			throw new NullPointerException();
+		newEntry = new MapEntry<K, V>(key, value);
+		while(true) {
+			entry = find(newEntry);
+			if(entry == null) {
+				//The key isn't in the map, try to insert it
+				if(insertEntry(newEntry))
+					return null;
+				continue;
+			}
+			oldValue = entry.value;
+			if(oldValue == MapEntry.REMOVED) {
+				//The entry is being removed, help unlink it and retry
+				unlink(entry);
+				continue;
+			}
+			if(onlyIfAbsent || entry.casValue(oldValue, value))
+				return (V)oldValue;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V replace(K key, V value) {
+
+		MapEntry<K, V> entry = null;
+		Object oldValue = null;
+
+		if(value == null)
+			throw new NullPointerException();
+		entry = find(new MapEntry<K, V>(key, null));
+		if(entry == null)
+			return null;
+		while(true) {
+			oldValue = entry.value;
+			if(oldValue == MapEntry.REMOVED) {
+				unlink(entry);
+				return null;
+			}
+			if(entry.casValue(oldValue, value))
+				return (V)oldValue;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(K key) {
+
+		MapEntry<K, V> entry = find(new MapEntry<K, V>(key, null));
+		Object oldValue = null;
+
+		if(entry == null)
+			return null;
+		while(true) {
+			oldValue = entry.value;
+			if(oldValue == MapEntry.REMOVED) {
+				//Somebody else removed the key first
+				unlink(entry);
+				return null;
+			}
+			if(entry.casValue(oldValue, MapEntry.REMOVED)) {
+				unlink(entry);
+				return (V)oldValue;
+			}
+		}
+	}
+
+	@Override
+	public V computeIfAbsent(K key,
+			Function<? super K, ? extends V> mappingFunction) {
+
+		V value = get(key);
+		V oldValue = null;
+
+		if(value != null)
+			return value;
+		value = mappingFunction.apply(key);
+		if(value == null)
+			return null;
+		oldValue = putIfAbsent(key, value);
+		return (oldValue == null) ? value : oldValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V merge(K key, V value,
+			BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+
+		MapEntry<K, V> newEntry = null;
+		MapEntry<K, V> entry = null;
+		Object oldValue = null;
+		V mergedValue = null;
+
+		if(value == null)
+			throw new NullPointerException();
+		newEntry = new MapEntry<K, V>(key, value);
+		while(true) {
+			entry = find(newEntry);
+			if(entry == null) {
+				if(insertEntry(newEntry))
+					return value;
+				continue;
+			}
+			oldValue = entry.value;
+			if(oldValue == MapEntry.REMOVED) {
+				unlink(entry);
+				continue;
+			}
+			mergedValue = remappingFunction.apply((V)oldValue, value);
+			if(mergedValue == null) {
+				//Remove the key
+				if(entry.casValue(oldValue, MapEntry.REMOVED)) {
+					unlink(entry);
+					return null;
+				}
+			} else if(entry.casValue(oldValue, mergedValue)) {
+				return mergedValue;
+			}
+		}
+	}
+}
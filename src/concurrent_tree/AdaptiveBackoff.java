@@ -0,0 +1,65 @@
+package concurrent_tree;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Adaptive Backoff
+ *
+ * Contention manager whose spin limit is shared by every thread using a tree.
+ * Failures double the limit; operations which succeed at their first attempt
+ * shrink it by an eighth, so under low contention it decays back to the
+ * minimum and costs nothing but a read.  The limit is updated with plain
+ * volatile writes rather than compare-and-sets: lost updates only make the
+ * heuristic slightly less precise, and the limit is only written when it
+ * actually changes, so it doesn't become a hot spot itself.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class AdaptiveBackoff implements ContentionManager {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final int minSpins;
+	final int maxSpins;
+	volatile int limit;
+
+	/**
+	 * Creates an adaptive backoff manager.
+	 *
+	 * @param minSpins The smallest spin limit
+	 * @param maxSpins The largest spin limit
+	 */
+	AdaptiveBackoff(int minSpins, int maxSpins) {
+		if(minSpins < 1 || maxSpins < minSpins)
+			throw new IllegalArgumentException("Invalid spin limits " +
+					minSpins + ", " + maxSpins);
+		this.minSpins = minSpins;
+		this.maxSpins = maxSpins;
+		limit = minSpins;
+	}
+
+	@Override
+	public void backoff(int failures) {
+
+		int curLimit = limit;
+		int spins = ThreadLocalRandom.current().nextInt(curLimit) + 1;
+
+		if(curLimit < maxSpins)
+			limit = Math.min(maxSpins, curLimit * 2);
+		for(int i = 0; i < spins; i++)
+			Thread.onSpinWait();
+	}
+
+	@Override
+	public void succeeded(int failures) {
+
+		int curLimit = 0;
+
+		if(failures == 0) {
+			curLimit = limit;
+			if(curLimit > minSpins)
+				limit = Math.max(minSpins, curLimit - (curLimit >> 3) - 1);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * BPlusNode Class
+ *
+ * Implementation of a wide node to be used in conjunction with the
+ * OptimisticBPlusTree class.  A leaf holds up to keys.length sorted keys; an
+ * inner node holds up to keys.length sorted separators and one more child
+ * than separators, where child i holds the keys in [keys[i - 1], keys[i]).
+ *
+ * Every node has a lock word holding a version number, whose lowest bit is
+ * set while the node is locked.  Readers read the version, read the node's
+ * fields and then validate that the version didn't change; writers lock the
+ * node by compare-and-setting the lock word from the version they read, and
+ * publish a new version when they unlock.  The other fields are plain, so
+ * readers must expect them to be inconsistent until they have validated.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The generic data type of the keys stored in the BPlusNode class
+ */
+public final class BPlusNode<T> {
+
+	/**
+	 * VarHandle used to compare-and-set the lock word.
+	 */
+	private static final VarHandle VERSION;
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(BPlusNode.class,
+					"version", long.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	volatile long version;
+	int count;
+	final Object[] keys;
+	final BPlusNode<T>[] children;
+
+	/**
+	 * Instantiates an empty BPlusNode object.
+	 * @param fanout The maximum number of keys or separators in the node
+	 * @param leaf True for a leaf, false for an inner node
+	 */
+	@SuppressWarnings("unchecked")
+	public BPlusNode(int fanout, boolean leaf) {
+		version = 0;
+		count = 0;
+		keys = new Object[fanout];
+		children = leaf ? null :
+				(BPlusNode<T>[])new BPlusNode<?>[fanout + 1];
+	}
+
+	/**
+	 * Returns whether or not the node is a leaf.
+	 * @return True if the node is a leaf, false otherwise
+	 */
+	public boolean isLeaf() {
+		return children == null;
+	}
+
+	/**
+	 * Returns whether or not the node has room for another key or separator.
+	 * @return True if the node is full, false otherwise
+	 */
+	public boolean isFull() {
+		return count == keys.length;
+	}
+
+	/**
+	 * Waits until the node isn't locked and returns its version.
+	 * @return The version
+	 */
+	public long readVersion() {
+		long curVersion = (long)VERSION.getAcquire(this);
+
+		while((curVersion & 1) != 0) {
+			Thread.onSpinWait();
+			curVersion = (long)VERSION.getAcquire(this);
+		}
+		return curVersion;
+	}
+
+	/**
+	 * Checks that the node hasn't been locked since its version was read, i.e.
+	 * that everything read from it in between is consistent.
+	 * @param oldVersion The version read before reading the node
+	 * @return True if the node is unchanged, false otherwise
+	 */
+	public boolean validate(long oldVersion) {
+		VarHandle.acquireFence();
+		return version == oldVersion;
+	}
+
+	/**
+	 * Locks the node, but only if it hasn't changed since its version was
+	 * read.
+	 * @param oldVersion The version read before reading the node
+	 * @return True if the node was locked, false otherwise
+	 */
+	public boolean tryLock(long oldVersion) {
+		return VERSION.compareAndSet(this, oldVersion, oldVersion + 1);
+	}
+
+	/**
+	 * Unlocks the node, publishing a new version.
+	 */
+	public void unlock() {
+		VERSION.setRelease(this, version + 1);
+	}
+}
@@ -0,0 +1,74 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * CLH Lock
+ *
+ * Craig, Landin and Hagersten's queue lock.  The lock is the tail of an
+ * implicit queue of QueueNodes: a thread appends its node by swapping it into
+ * the tail and spins on the node of its predecessor, which it then owns once
+ * the predecessor releases the lock.  Every waiter spins on a different node,
+ * so releasing the lock only invalidates the cache line of its successor, and
+ * threads get the lock in FIFO order.  Every lock keeps one node, the tail,
+ * even when it's free.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class CLHLock implements NodeLock {
+
+	/**
+	 * VarHandle used to swap the tail.
+	 */
+	private static final VarHandle TAIL;
+	static {
+		try {
+			TAIL = MethodHandles.lookup().findVarHandle(CLHLock.class, "tail",
+					QueueNode.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	private volatile QueueNode tail;
+	private QueueNode owner;
+
+	/**
+	 * Creates an unlocked CLH lock.
+	 */
+	CLHLock() {
+		tail = new QueueNode();
+	}
+
+	@Override
+	public void lock() {
+
+		QueueNode node = QueueNode.take();
+		QueueNode pred = null;
+		long start = 0;
+
+		node.locked = true;
+		pred = (QueueNode)TAIL.getAndSet(this, node);
+		if(pred.locked) {
+			start = (TreeMetrics.ENABLED ? System.nanoTime() : 0);
+			for(int spins = 0; pred.locked; spins++)
+				QueueNode.pause(spins);
+			TreeMetrics.lockContended(start);
+		} else
+			TreeMetrics.count(TreeMetrics.Event.LOCK_ACQUIRED);
+
+		//Nobody else references the predecessor's node anymore
+		owner = node;
+		QueueNode.recycle(pred);
+	}
+
+	@Override
+	public void unlock() {
+		//The node now belongs to the successor, or stays as the tail
+		owner.locked = false;
+	}
+}
@@ -7,8 +7,8 @@ package concurrent_tree;
  * implemented as the final project for ECE 5510 Multiprocessor Programming.
  * 
  * All concurrent trees must implement the three main tree functions, insert,
- * remove and contains.  The function declarations (and descriptions) are
- * listed below.
+ * remove and contains, along with size.  The function declarations (and
+ * descriptions) are listed below.
  * 
  * @author Rob Lyerly <rlyerly@vt.edu>
  *
@@ -41,4 +41,25 @@ public interface ConcurrentBinaryTree<T extends Comparable<? super T>> {
 	 * otherwise
 	 */
 	boolean contains(T data);
+	
+	/**
+	 * Returns the number of elements in the tree.  Implementations keep a
+	 * running count rather than traversing the tree, so this takes O(1) time.
+	 * Unless stated otherwise, the count is updated just after each
+	 * successful insert or remove and is only an estimate while updates are
+	 * in progress.
+	 * 
+	 * @return The number of elements in the tree, capped at
+	 * Integer.MAX_VALUE
+	 */
+	int size();
+	
+	/**
+	 * Check to see if the binary tree holds no elements.
+	 * 
+	 * @return True if the binary tree is empty, false otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
 }
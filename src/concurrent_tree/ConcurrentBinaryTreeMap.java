@@ -0,0 +1,102 @@
+package concurrent_tree;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Concurrent Binary Tree Map Interface
+ *
+ * This file describes the interface required for the concurrent binary tree
+ * maps, which store a value alongside every key in the tree.  Keys and values
+ * may not be null.
+ *
+ * Updating the value of a key that is already in the map is a single atomic
+ * operation on that key's entry and never changes the structure of the tree.
+ * The function declarations (and descriptions) are listed below.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <K> The key type, which must implement the Comparable interface
+ * @param <V> The value type
+ */
+public interface ConcurrentBinaryTreeMap<K extends Comparable<? super K>, V> {
+
+	/**
+	 * Returns the value associated with the key.
+	 *
+	 * @param key The key to look up
+	 * @return The value associated with the key, or null if the key isn't in
+	 * the map
+	 */
+	V get(K key);
+
+	/**
+	 * Associates the value with the key, replacing any existing value.
+	 *
+	 * @param key The key to insert or update
+	 * @param value The new value
+	 * @return The previous value associated with the key, or null if the key
+	 * wasn't in the map
+	 */
+	V put(K key, V value);
+
+	/**
+	 * Associates the value with the key if the key isn't already in the map.
+	 *
+	 * @param key The key to insert
+	 * @param value The new value
+	 * @return The value already associated with the key, or null if the value
+	 * was inserted
+	 */
+	V putIfAbsent(K key, V value);
+
+	/**
+	 * Replaces the value associated with the key, only if the key is already
+	 * in the map.
+	 *
+	 * @param key The key to update
+	 * @param value The new value
+	 * @return The previous value associated with the key, or null if the key
+	 * wasn't in the map
+	 */
+	V replace(K key, V value);
+
+	/**
+	 * Removes the key (and its value) from the map.
+	 *
+	 * @param key The key to remove
+	 * @return The value that was associated with the key, or null if the key
+	 * wasn't in the map
+	 */
+	V remove(K key);
+
+	/**
+	 * Returns the value associated with the key, computing it with the passed
+	 * function and inserting it if the key isn't in the map.  As with
+	 * ConcurrentSkipListMap, the function may be called even if the value ends
+	 * up not being inserted because another thread inserted the key first.
+	 *
+	 * @param key The key to look up
+	 * @param mappingFunction The function computing the value for the key
+	 * @return The current (existing or computed) value associated with the
+	 * key, or null if the function returned null
+	 */
+	V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction);
+
+	/**
+	 * Associates the value with the key if the key isn't in the map, otherwise
+	 * replaces the current value with the result of the remapping function
+	 * applied to the current value and the passed value.  If the function
+	 * returns null, the key is removed.  The function may be called more than
+	 * once if the value changes concurrently.
+	 *
+	 * @param key The key to insert or update
+	 * @param value The value to insert, or to combine with the current value
+	 * @param remappingFunction The function combining the current and passed
+	 * values
+	 * @return The new value associated with the key, or null if the key was
+	 * removed
+	 */
+	V merge(K key, V value,
+			BiFunction<? super V, ? super V, ? extends V> remappingFunction);
+}
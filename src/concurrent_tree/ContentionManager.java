@@ -0,0 +1,75 @@
+package concurrent_tree;
+
+/**
+ * Contention Manager Interface
+ *
+ * Decides what a thread does after one of its compare-and-sets fails because
+ * another thread changed the same node first.  Retrying immediately makes
+ * every thread working on a hot region of the tree keep failing against the
+ * same few cache lines; backing off for a short, randomized time lets one of
+ * them win and the others succeed on their next attempt.  Managers are shared
+ * by every thread using a tree, so implementations must be thread safe.
+ *
+ * The lock-free trees call backoff() after every failed attempt of an
+ * operation, and succeeded() once the operation completes.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public interface ContentionManager {
+
+	/**
+	 * Called after an attempt of an operation failed.
+	 *
+	 * @param failures The number of attempts of this operation that have
+	 * failed so far, starting at 1
+	 */
+	void backoff(int failures);
+
+	/**
+	 * Called after an operation succeeded.
+	 *
+	 * @param failures The number of attempts of the operation that failed
+	 * before it succeeded
+	 */
+	default void succeeded(int failures) {
+	}
+
+	/**
+	 * Retries immediately.
+	 */
+	ContentionManager NONE = failures -> {
+	};
+
+	/**
+	 * Exponential backoff starting at 4 spins and capped at 1024 spins.
+	 */
+	ContentionManager EXPONENTIAL = exponential(4, 1024);
+
+	/**
+	 * Creates an exponential backoff manager.  After the n-th failure of an
+	 * operation the thread spins for a random number of iterations below
+	 * minSpins * 2^(n-1), capped at maxSpins.
+	 *
+	 * @param minSpins The spin limit after the first failure
+	 * @param maxSpins The largest spin limit
+	 * @return The new manager
+	 */
+	static ContentionManager exponential(int minSpins, int maxSpins) {
+		return new ExponentialBackoff(minSpins, maxSpins);
+	}
+
+	/**
+	 * Creates an adaptive backoff manager.  Rather than starting every
+	 * operation at the same spin limit, the limit is shared by the threads
+	 * using the tree: it doubles after every failure and decays after every
+	 * operation that succeeds at its first attempt, so it follows the level of
+	 * contention on the tree.  Each manager should only be used by one tree.
+	 *
+	 * @param minSpins The smallest spin limit
+	 * @param maxSpins The largest spin limit
+	 * @return The new manager
+	 */
+	static ContentionManager adaptive(int minSpins, int maxSpins) {
+		return new AdaptiveBackoff(minSpins, maxSpins);
+	}
+}
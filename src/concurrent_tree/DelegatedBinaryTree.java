@@ -0,0 +1,560 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
+
+/**
+ * Delegated Binary Tree
+ *
+ * This class implements a concurrent binary tree by delegation.  A dedicated
+ * server thread owns a SequentialBinaryTree; client threads never touch the
+ * tree, they post their operations to their own request slot and the server
+ * applies them.  Unlike flat combining, where whichever client grabs the lock
+ * combines, the tree stays in the cache of a single core for its whole life.
+ *
+ * Every client thread gets a slot holding a small ring of requests, padded so
+ * that the slots of different clients and the counters written by the client
+ * and by the server don't share cache lines.  The server repeatedly scans
+ * every slot and applies all of a slot's pending requests as one batch,
+ * publishing the batch's responses with a single write.  When there is
+ * nothing to do for a while, the server parks until a client posts a
+ * request.
+ *
+ * Operations can be performed synchronously, through the ConcurrentBinaryTree
+ * interface, or asynchronously through insertAsync(), removeAsync() and
+ * containsAsync(), which return a CompletableFuture so that a client can keep
+ * up to SLOT_CAPACITY operations in flight.  The server completes the futures
+ * itself, so dependent stages should be attached with the *Async methods of
+ * CompletableFuture to keep them off the server thread.  Operations called on
+ * the server thread itself, e.g. from a dependent stage which wasn't, are
+ * applied directly rather than posted, since the server can't wait for
+ * itself.  The server thread runs until close() is called, and since it
+ * references the tree, an unreachable tree is never collected: every tree must
+ * be closed, e.g. with try-with-resources, or its thread leaks.  A
+ * ShardedBinaryTree closes its delegated shards when it is closed itself.
+ *
+ * Based on "ffwd: delegation is (much) faster than you think" by Roghanchi
+ * et. al. and "Remote Core Locking" by Lozi et. al.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class DelegatedBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T>, AutoCloseable {
+
+	/**
+	 * Operation codes posted to a request slot.
+	 */
+	private static final int INSERT = 1;
+	private static final int REMOVE = 2;
+	private static final int CONTAINS = 3;
+
+	/**
+	 * Number of requests a client can have in flight.  Must be a power of
+	 * two.
+	 */
+	public static final int SLOT_CAPACITY = 32;
+
+	/**
+	 * Number of empty scans before the server parks, number of spins before
+	 * a waiting client starts yielding, and how often (in scans) the server
+	 * drops the slots of threads that have terminated.
+	 */
+	private static final int IDLE_SCANS = 1024;
+	private static final int CLIENT_SPINS = 128;
+	private static final int PRUNE_PERIOD = 4096;
+
+	/**
+	 * Bit the server sets in the head of every slot when the tree is closed.
+	 * Clients publish requests with a compare-and-set of head, so a request is
+	 * either published before the slot is sealed, and applied by the server,
+	 * or refused.
+	 */
+	private static final long SEALED = Long.MIN_VALUE;
+
+	/**
+	 * VarHandle used to publish requests and to seal slots.
+	 */
+	private static final VarHandle HEAD;
+	static {
+		try {
+			HEAD = MethodHandles.lookup().findVarHandle(Slot.class, "head",
+					long.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Per-client request slot.  The client writes a request into the ring
+	 * and then publishes it by incrementing head; the server applies the
+	 * requests between tail and head, writes their responses and then
+	 * advances tail past them.  Head and tail are padded on both sides so
+	 * that they sit on cache lines of their own (HotSpot keeps fields of the
+	 * same type in declaration order).
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class Slot {
+
+		long p00, p01, p02, p03, p04, p05, p06, p07;
+		volatile long head;
+		long p10, p11, p12, p13, p14, p15, p16, p17;
+		volatile long tail;
+		long p20, p21, p22, p23, p24, p25, p26, p27;
+
+		final Thread owner;
+		final int[] ops;
+		final Object[] data;
+		final Object[] results;
+		final CompletableFuture<Object>[] futures;
+
+		@SuppressWarnings("unchecked")
+		Slot(Thread owner) {
+			this.owner = owner;
+			head = 0;
+			tail = 0;
+			ops = new int[SLOT_CAPACITY];
+			data = new Object[SLOT_CAPACITY];
+			results = new Object[SLOT_CAPACITY];
+			futures = (CompletableFuture<Object>[])
+					new CompletableFuture<?>[SLOT_CAPACITY];
+		}
+	}
+
+	/**
+	 * Local variables and definitions.  The slots array is replaced, never
+	 * modified, when clients register or are pruned.
+	 */
+	final SequentialBinaryTree<T> tree;
+	final Thread server;
+	final ThreadLocal<Slot> localSlot;
+	final Object registrationLock;
+	volatile Slot[] slots;
+	volatile boolean running;
+	volatile boolean parked;
+	volatile boolean closed;
+	volatile int size;
+
+	/**
+	 * Instantiates an empty delegated binary tree and starts its server
+	 * thread.
+	 */
+	public DelegatedBinaryTree() {
+		tree = new SequentialBinaryTree<T>();
+		localSlot = new ThreadLocal<Slot>();
+		registrationLock = new Object();
+		slots = new Slot[0];
+		running = true;
+		parked = false;
+		closed = false;
+		size = 0;
+		server = new Thread(this::serve, "delegated-tree-server");
+		server.setDaemon(true);
+		server.start();
+	}
+
+	/**
+	 * Inserts new data into the tree.  Posts the request and waits for the
+	 * server to apply it.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 * @throws IllegalStateException If the tree has been closed
+	 */
+	@Override
+	public boolean insert(T data) {
+		return (Boolean)execute(INSERT, data);
+	}
+
+	/**
+	 * Removes the specified data from the tree.  Posts the request and waits
+	 * for the server to apply it.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 * @throws IllegalStateException If the tree has been closed
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T remove(T data) {
+		return (T)execute(REMOVE, data);
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Posts the request and waits
+	 * for the server to apply it.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 * @throws IllegalStateException If the tree has been closed
+	 */
+	@Override
+	public boolean contains(T data) {
+		return (Boolean)execute(CONTAINS, data);
+	}
+
+	/**
+	 * Inserts new data into the tree asynchronously.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return A future completed with true if the data was inserted, false
+	 * otherwise
+	 */
+	public CompletableFuture<Boolean> insertAsync(T data) {
+		return submitAsync(INSERT, data);
+	}
+
+	/**
+	 * Removes the specified data from the tree asynchronously.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return A future completed with the removed data element if it was in
+	 * the tree, null otherwise
+	 */
+	public CompletableFuture<T> removeAsync(T data) {
+		return submitAsync(REMOVE, data);
+	}
+
+	/**
+	 * Searches the tree for the specified data asynchronously.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return A future completed with true if the data is in the tree, false
+	 * otherwise
+	 */
+	public CompletableFuture<Boolean> containsAsync(T data) {
+		return submitAsync(CONTAINS, data);
+	}
+
+	/**
+	 * Returns the number of elements in the tree without posting a request.
+	 * The server publishes the sequential tree's count after every batch and
+	 * before responding to it, so the count reflects every completed update.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Stops the server thread once it has applied every pending request, and
+	 * waits for it to stop unless called on the server thread itself.
+	 * Operations posted afterwards fail with an IllegalStateException.  If the
+	 * calling thread is interrupted while waiting it keeps waiting, and its
+	 * interrupt status is restored before returning.
+	 */
+	@Override
+	public void close() {
+
+		boolean interrupted = false;
+
+		running = false;
+		if(Thread.currentThread() == server)
+			return;
+		LockSupport.unpark(server);
+		while(server.isAlive()) {
+			try {
+				server.join();
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Returns the calling thread's slot, registering a new one on first use.
+	 *
+	 * @return The calling thread's slot
+	 * @throws IllegalStateException If the tree has been closed
+	 */
+	private Slot slot() {
+
+		Slot slot = localSlot.get();
+		Slot[] curSlots = null;
+
+		if(slot == null) {
+			slot = new Slot(Thread.currentThread());
+			synchronized(registrationLock) {
+				//Once the server saw running cleared it seals the slots it
+				//finds here, so no slot may be added after that
+				if(!running)
+					throw new IllegalStateException("The tree has been closed");
+				curSlots = Arrays.copyOf(slots, slots.length + 1);
+				curSlots[curSlots.length - 1] = slot;
+				slots = curSlots;
+			}
+			localSlot.set(slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Posts a request to the calling thread's slot, waiting for room in the
+	 * ring if it is full.
+	 *
+	 * @param slot The calling thread's slot
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @param future The future to complete, or null for a synchronous request
+	 * @return The sequence number of the request
+	 * @throws IllegalStateException If the tree has been closed
+	 */
+	private long post(Slot slot, int op, T data,
+			CompletableFuture<Object> future) {
+
+		long seq = slot.head;
+		int index = (int)seq & (SLOT_CAPACITY - 1);
+
+		if(!running || (seq & SEALED) != 0)
+			throw new IllegalStateException("The tree has been closed");
+		await(slot, seq - SLOT_CAPACITY);
+		slot.ops[index] = op;
+		slot.data[index] = data;
+		slot.futures[index] = future;
+
+		//Publish the request, unless the server sealed the slot in the
+		//meantime and will never see it
+		if(!HEAD.compareAndSet(slot, seq, seq + 1)) {
+			slot.data[index] = null;
+			slot.futures[index] = null;
+			throw new IllegalStateException("The tree has been closed");
+		}
+		if(parked)
+			LockSupport.unpark(server);
+		return seq;
+	}
+
+	/**
+	 * Waits until the server has responded to a request.
+	 *
+	 * @param slot The calling thread's slot
+	 * @param seq The sequence number of the request
+	 * @throws IllegalStateException If the server stopped without responding
+	 */
+	private void await(Slot slot, long seq) {
+
+		int spins = 0;
+
+		while(slot.tail <= seq) {
+			if(closed && slot.tail <= seq)
+				throw new IllegalStateException("The tree has been closed");
+			if(spins++ < CLIENT_SPINS)
+				Thread.onSpinWait();
+			else
+				Thread.yield();
+		}
+	}
+
+	/**
+	 * Posts a synchronous request and waits for its response.
+	 *
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @return The response
+	 */
+	private Object execute(int op, T data) {
+
+		Slot slot = null;
+		long seq = 0;
+		int index = 0;
+		Object result = null;
+
+		if(Thread.currentThread() == server)
+			return applyDirectly(op, data);
+		slot = slot();
+		seq = post(slot, op, data, null);
+		index = (int)seq & (SLOT_CAPACITY - 1);
+		await(slot, seq);
+		result = slot.results[index];
+		slot.results[index] = null;
+		return result;
+	}
+
+	/**
+	 * Posts an asynchronous request.
+	 *
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @return The future the server completes with the response
+	 */
+	@SuppressWarnings("unchecked")
+	private <R> CompletableFuture<R> submitAsync(int op, T data) {
+
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+		if(Thread.currentThread() == server)
+			return (CompletableFuture<R>)CompletableFuture.completedFuture(
+					applyDirectly(op, data));
+		try {
+			post(slot(), op, data, future);
+		} catch(IllegalStateException e) {
+			future.completeExceptionally(e);
+		}
+		return (CompletableFuture<R>)future;
+	}
+
+	/**
+	 * Applies a request made on the server thread, e.g. by a dependent stage
+	 * of a future the server completed, to the tree directly.
+	 *
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @return The response
+	 */
+	private Object applyDirectly(int op, T data) {
+
+		Object result = perform(op, data);
+
+		size = tree.size();
+		return result;
+	}
+
+	/**
+	 * Server loop.  Scans the slots and applies their pending requests until
+	 * the tree is closed, parking when there is nothing to do, then seals
+	 * every slot, applies whatever is still pending and marks the tree
+	 * closed.
+	 */
+	private void serve() {
+
+		Slot[] finalSlots = null;
+		int idle = 0, scans = 0, applied = 0;
+
+		while(running) {
+			applied = 0;
+			for(Slot slot : slots)
+				applied += apply(slot);
+			if(applied > 0) {
+				TreeMetrics.count(Event.COMBINING_PASS);
+				TreeMetrics.record(Histogram.COMBINED_BATCH_SIZE, applied);
+				idle = 0;
+			} else if(++idle >= IDLE_SCANS) {
+				//Announce that we are parking, then look once more, so that a
+				//client either sees the flag or we see its request
+				parked = true;
+				if(!hasPending())
+					LockSupport.park(this);
+				parked = false;
+				idle = 0;
+			}
+			if(++scans % PRUNE_PERIOD == 0)
+				prune();
+		}
+		synchronized(registrationLock) {
+			finalSlots = slots;
+		}
+		for(Slot slot : finalSlots) {
+			HEAD.getAndBitwiseOr(slot, SEALED);
+			apply(slot);
+		}
+		closed = true;
+	}
+
+	/**
+	 * Applies every pending request of a slot to the tree and responds to
+	 * them.
+	 *
+	 * @param slot The slot
+	 * @return The number of requests applied
+	 */
+	@SuppressWarnings("unchecked")
+	private int apply(Slot slot) {
+
+		long first = slot.tail, last = slot.head & ~SEALED;
+		CompletableFuture<Object> future = null;
+		Object result = null;
+		T data = null;
+		int index = 0;
+
+		if(first == last)
+			return 0;
+		for(long seq = first; seq < last; seq++) {
+			index = (int)seq & (SLOT_CAPACITY - 1);
+			data = (T)slot.data[index];
+			result = perform(slot.ops[index], data);
+			slot.data[index] = null;
+			slot.results[index] = result;
+		}
+		size = tree.size();
+
+		//Respond, completing the futures of asynchronous requests before the
+		//client can reuse their entries
+		for(long seq = first; seq < last; seq++) {
+			index = (int)seq & (SLOT_CAPACITY - 1);
+			future = slot.futures[index];
+			if(future != null) {
+				slot.futures[index] = null;
+				result = slot.results[index];
+				slot.results[index] = null;
+				future.complete(result);
+			}
+		}
+		slot.tail = last;
+		return (int)(last - first);
+	}
+
+	/**
+	 * Performs an operation on the tree.  Must only be called on the server
+	 * thread.
+	 *
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @return The response
+	 */
+	private Object perform(int op, T data) {
+		switch(op) {
+		case INSERT:
+			return tree.insert(data);
+		case REMOVE:
+			return tree.remove(data);
+		default:
+			return tree.contains(data);
+		}
+	}
+
+	/**
+	 * Checks whether any slot has a pending request.
+	 *
+	 * @return True if a request is pending, false otherwise
+	 */
+	private boolean hasPending() {
+		for(Slot slot : slots) {
+			if(slot.head != slot.tail)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drops the slots of threads which have terminated.
+	 */
+	private void prune() {
+
+		Slot[] curSlots = null, liveSlots = null;
+		int live = 0;
+
+		synchronized(registrationLock) {
+			curSlots = slots;
+			liveSlots = new Slot[curSlots.length];
+			for(Slot slot : curSlots) {
+				if(slot.owner.isAlive() || slot.head != slot.tail)
+					liveSlots[live++] = slot;
+			}
+			if(live < curSlots.length)
+				slots = Arrays.copyOf(liveSlots, live);
+		}
+	}
+}
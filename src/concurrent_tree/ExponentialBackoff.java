@@ -0,0 +1,46 @@
+package concurrent_tree;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential Backoff
+ *
+ * Contention manager which spins for a random number of iterations after a
+ * failure, doubling the limit with every failure of the same operation.  Keeps
+ * no shared state, so a single instance can be used by any number of trees.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class ExponentialBackoff implements ContentionManager {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final int minSpins;
+	final int maxSpins;
+
+	/**
+	 * Creates an exponential backoff manager.
+	 *
+	 * @param minSpins The spin limit after the first failure
+	 * @param maxSpins The largest spin limit
+	 */
+	ExponentialBackoff(int minSpins, int maxSpins) {
+		if(minSpins < 1 || maxSpins < minSpins)
+			throw new IllegalArgumentException("Invalid spin limits " +
+					minSpins + ", " + maxSpins);
+		this.minSpins = minSpins;
+		this.maxSpins = maxSpins;
+	}
+
+	@Override
+	public void backoff(int failures) {
+
+		long limit = (long)minSpins << Math.min(failures - 1, 31);
+		int spins = ThreadLocalRandom.current().nextInt(
+				(int)Math.min(limit, maxSpins)) + 1;
+
+		for(int i = 0; i < spins; i++)
+			Thread.onSpinWait();
+	}
+}
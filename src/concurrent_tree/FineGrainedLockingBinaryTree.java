@@ -1,8 +1,20 @@
 package concurrent_tree;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Fine-Grained Locking Binary Tree
@@ -10,26 +22,147 @@ import java.util.concurrent.locks.ReentrantLock;
  * This class implements a concurrent version of a binary tree using a
  * fine-grained locking approach for correctness and synchronization. 
  * 
+ * The kind of lock guarding each node is chosen by a LockStrategy.  By default
+ * the locks are kept inline in the nodes; TTAS, CLH, MCS and ReentrantLock
+ * locks can be selected instead to compare how they behave when threads queue
+ * up behind the nodes near the root.
+ * 
+ * The root of the tree is a permanent sentinel node whose data (null) is
+ * bigger than any other, so the elements are stored in its left subtree.
+ * Since the sentinel is never removed there's no root pointer to guard with a
+ * global lock.  Operations enter the tree at the topmost node, the sentinel's
+ * left child, without locking the sentinel: whoever replaces the topmost node
+ * must hold its lock as well as the sentinel's, so once a thread has locked
+ * the node that is still the sentinel's child, it stays there.  Only inserting
+ * into an empty tree and removing the topmost node lock the sentinel.  This
+ * saves one lock per operation but doesn't remove the serialization at the
+ * top: every operation, whatever its key, still locks the topmost node for
+ * one step of its traversal.  The OptimisticLockingBinaryTree is the variant
+ * whose searches take no locks at all.
+ * 
  * @author Rob Lyerly <rlyerly>
  *
  * @param <T> Generic data type that the tree stores.  The data type must
  * implement the Comparable interface so that an ordering can be determined.
  */
 public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
-		implements ConcurrentBinaryTree<T> {
+		implements ConcurrentBinaryTree<T>, Iterable<T> {
+	
+	/**
+	 * VarHandle used to publish the sentinel's left child, which is read
+	 * without holding the sentinel's lock.
+	 */
+	private static final VarHandle LEFT;
+	static {
+		try {
+			LEFT = MethodHandles.lookup().findVarHandle(LockableNode.class,
+					"left", LockableNode.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 	
 	/**
 	 * Local variables and definitions.
 	 */
-	LockableNode<T> root;
-	ReentrantLock headLock;
+	final LockableNode<T> root;
+	final LockStrategy lockStrategy;
+	final SizeCounter sizeCounter;
 	
 	/**
 	 * Instantiates an empty fine-grained locking binary tree for use.
 	 */
 	public FineGrainedLockingBinaryTree() {
-		root = null;
-		headLock = new ReentrantLock();
+		this(false);
+	}
+	
+	/**
+	 * Instantiates an empty fine-grained locking binary tree for use.
+	 * 
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, which makes every update more expensive (see
+	 * SizeCounter)
+	 */
+	public FineGrainedLockingBinaryTree(boolean exactSize) {
+		this(exactSize, LockStrategy.INLINE);
+	}
+	
+	/**
+	 * Instantiates an empty fine-grained locking binary tree for use.
+	 * 
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, which makes every update more expensive (see
+	 * SizeCounter)
+	 * @param lockStrategy Creates the lock of every node
+	 */
+	public FineGrainedLockingBinaryTree(boolean exactSize,
+			LockStrategy lockStrategy) {
+		this.lockStrategy = lockStrategy;
+		root = new LockableNode<T>(null, lockStrategy.newLock());
+		sizeCounter = new SizeCounter(exactSize);
+	}
+	
+	/**
+	 * Locks the topmost node of the tree, the sentinel's left child, without
+	 * locking the sentinel.  The sentinel's child can only be replaced by a
+	 * thread holding both the sentinel's lock and the child's, so if the node
+	 * is still the sentinel's child once it's locked it will stay that way.
+	 * 
+	 * @return The locked topmost node, or the locked sentinel if the tree is
+	 * empty
+	 */
+	@SuppressWarnings("unchecked")
+	private LockableNode<T> lockTop() {
+		
+		LockableNode<T> top = null;
+		
+		while(true) {
+			top = (LockableNode<T>)LEFT.getAcquire(root);
+			if(top == null) {
+				//The tree looks empty, which can only change under the
+				//sentinel's lock
+				root.lock();
+				if(root.left == null)
+					return root;
+				root.unlock();
+			} else {
+				top.lock();
+				if(LEFT.getAcquire(root) == top)
+					return top;
+				top.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Sets the left child of a node.  The sentinel's left child is read
+	 * without holding the sentinel's lock (see lockTop()), so it is published
+	 * with release semantics, after all of the child's fields have been set.
+	 * 
+	 * @param node The node, which must be locked
+	 * @param child The new left child
+	 */
+	private void setLeft(LockableNode<T> node, LockableNode<T> child) {
+		if(node == root)
+			LEFT.setRelease(node, child);
+		else
+			node.left = child;
+	}
+	
+	/**
+	 * Inserts new data into the tree.
+	 * 
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertNode(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
 	}
 	
 	/**
@@ -40,56 +173,49 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	 * @param data The data to be inserted into the tree
 	 * @return True if the data was successfully inserted, false otherwise
 	 */
-	@Override
-	public boolean insert(T data) {
+	private boolean insertNode(T data) {
 	
-		LockableNode<T> newNode = new LockableNode<T>(data);
+		LockableNode<T> newNode = new LockableNode<T>(data,
+				lockStrategy.newLock());
 		LockableNode<T> curNode = null;
 		LockableNode<T> parentNode = null;
 		int compare = 0;
 		
-		headLock.lock();
-		if(root == null) {
-			//The tree is empty, insert the new node as the root
-			root = newNode;
-			headLock.unlock();
-		} else {
-			//The tree is not empty, find a location to insert the new node
-			curNode = root;
-			curNode.lock();
-			headLock.unlock();
-			while(true) {
-				parentNode = curNode;
-				compare = curNode.data.compareTo(data);
-				if(compare > 0) {
-					//curNode is "bigger" than newNode, enter left subtree
-					curNode = curNode.left;
-				} else if(compare < 0) {
-					//curNode is "smaller" than newNode, enter right subtree
-					curNode = curNode.right;
-				} else {
-					//The data is already in the tree
-					curNode.unlock();
-					return false;
-				}
-				
-				//Check to see if we've found our location.  If not, continue
-				//traversing the tree; else, break out of the loop
-				if(curNode == null) {
-					break;
-				} else {
-					curNode.lock();
-					parentNode.unlock();
-				}
+		//Find a location to insert the new node.  If the tree is empty this
+		//starts at the sentinel, which is bigger than the data.
+		curNode = lockTop();
+		while(true) {
+			parentNode = curNode;
+			compare = (curNode == root) ? 1 : curNode.data.compareTo(data);
+			if(compare > 0) {
+				//curNode is "bigger" than newNode, enter left subtree
+				curNode = curNode.left;
+			} else if(compare < 0) {
+				//curNode is "smaller" than newNode, enter right subtree
+				curNode = curNode.right;
+			} else {
+				//The data is already in the tree
+				curNode.unlock();
+				return false;
 			}
 			
-			//Insert the node into the tree
-			if(compare > 0)
-				parentNode.left = newNode;
-			else
-				parentNode.right = newNode;
-			parentNode.unlock();
+			//Check to see if we've found our location.  If not, continue
+			//traversing the tree; else, break out of the loop
+			if(curNode == null) {
+				break;
+			} else {
+				curNode.lock();
+				parentNode.unlock();
+			}
 		}
+		
+		//Insert the node into the tree
+		if(compare > 0)
+			setLeft(parentNode, newNode);
+		else
+			parentNode.right = newNode;
+		sizeCounter.increment();
+		parentNode.unlock();
 		return true;
 	}
 
@@ -103,93 +229,122 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	 */
 	@Override
 	public T remove(T data) {
+		return remove(data, false);
+	}
+
+	/**
+	 * Removes the passed data object from the tree, but only if the tree holds
+	 * that exact object rather than just an equal one.  Used by
+	 * FineGrainedLockingBinaryTreeMap to unlink removed entries.
+	 * 
+	 * @param data The data object to remove from the tree
+	 * @return True if the data object was removed, false otherwise
+	 */
+	boolean removeInstance(T data) {
+		return remove(data, true) != null;
+	}
+
+	/**
+	 * Shared implementation of remove and removeInstance.
+	 * 
+	 * @param data The data object to remove from the tree
+	 * @param sameInstance True if only the exact data object may be removed
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	private T remove(T data, boolean sameInstance) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeNode(data, sameInstance);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+	
+	/**
+	 * Removes the specified data from the tree, see remove(T, boolean).
+	 * 
+	 * @param data The data object to remove from the tree
+	 * @param sameInstance True if only the exact data object may be removed
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	private T removeNode(T data, boolean sameInstance) {
 		
 		LockableNode<T> curNode = null;
 		LockableNode<T> parentNode = null;
 		int compare = 0;
 		int oldCompare = 0;
 		
-		headLock.lock();
-		if(root != null) {
-			//Tree is not empty, search for the passed data.  Start by checking
-			//the root separately.
-			curNode = root;
-			parentNode = curNode;
+		curNode = lockTop();
+		if(curNode == root) {
+			//Tree is empty
+			root.unlock();
+			return null;
+		}
+		if(curNode.data.compareTo(data) == 0) {
+			//Removing the topmost node replaces the sentinel's child, so the
+			//sentinel must be locked too.  Locks are always taken top-down, so
+			//start over from the sentinel.
+			curNode.unlock();
+			parentNode = root;
+			parentNode.lock();
+			curNode = parentNode.left;
+			oldCompare = 1;
+			if(curNode == null) {
+				parentNode.unlock();
+				return null;
+			}
 			curNode.lock();
+		}
+		
+		while(true) {
 			compare = curNode.data.compareTo(data);
-			if(compare > 0) {
-				//root is "bigger" than passed data, search the left subtree
-				curNode = curNode.left;
-				oldCompare = compare;
-			} else if(compare < 0) {
-				//root is "smaller" than passed data, search the right subtree
-				curNode = curNode.right;
-				oldCompare = compare;
+			if(compare != 0) {
+				if(parentNode != null)
+					parentNode.unlock();
+				parentNode = curNode;
+				if(compare > 0) {
+					//curNode is "bigger" than passed data, search the left
+					//subtree
+					curNode = curNode.left;
+					oldCompare = compare;
+				} else if(compare < 0) {
+					//curNode is "smaller" than passed data, search the right
+					//subtree
+					curNode = curNode.right;
+					oldCompare = compare;
+				}
 			} else {
+				if(sameInstance && curNode.data != data) {
+					curNode.unlock();
+					parentNode.unlock();
+					return null;
+				}
+
 				//Found the specified data, remove it from the tree
 				LockableNode<T> replacement = findReplacement(curNode);
 				
-				root = replacement;
-				
+				//Replace curNode with replacement, linking in the replacement
+				//only once its children are set
 				if(replacement != null) {
 					replacement.left = curNode.left;
 					replacement.right = curNode.right;
 				}
+				if(oldCompare > 0)
+					setLeft(parentNode, replacement);
+				else
+					parentNode.right = replacement;
+				sizeCounter.decrement();
 				
 				curNode.unlock();
-				headLock.unlock();
+				parentNode.unlock();
 				return curNode.data;
 			}
-			curNode.lock();
-			headLock.unlock();
 			
-			while(true) {
-				compare = curNode.data.compareTo(data);
-				if(compare != 0) {
-					parentNode.unlock();
-					parentNode = curNode;
-					if(compare > 0) {
-						//curNode is "bigger" than passed data, search the left
-						//subtree
-						curNode = curNode.left;
-						oldCompare = compare;
-					} else if(compare < 0) {
-						//curNode is "smaller" than passed data, search the right
-						//subtree
-						curNode = curNode.right;
-						oldCompare = compare;
-					}
-				} else {
-					//Found the specified data, remove it from the tree
-					LockableNode<T> replacement = findReplacement(curNode);
-					
-					//Set the parent pointer to the new child
-					if(oldCompare > 0)
-						parentNode.left = replacement;
-					else
-						parentNode.right = replacement;
-					
-					//Replace curNode with replacement
-					if(replacement != null) {
-						replacement.left = curNode.left;
-						replacement.right = curNode.right;
-					}
-					
-					curNode.unlock();
-					parentNode.unlock();
-					return curNode.data;
-				}
-				
-				if(curNode == null) {
-					break;
-				} else {
-					curNode.lock();
-				}
+			if(curNode == null) {
+				break;
+			} else {
+				curNode.lock();
 			}
-		} else {
-			//Tree is empty
-			headLock.unlock();
-			return null;
 		}
 		
 		//The specified data was not in the tree
@@ -273,50 +428,586 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	 */
 	@Override
 	public boolean contains(T data) {
+		return find(data) != null;
+	}
+
+	/**
+	 * Searches the tree for the specified data and returns the data object
+	 * stored in the tree, which may be a different (but equal) object than the
+	 * passed one.
+	 * 
+	 * @param data The data object to search for in the tree
+	 * @return The data object stored in the tree, or null if the data is not
+	 * in the tree
+	 */
+	T find(T data) {
+		
+		//The ceiling of the data follows the same path as a search for it
+		T found = successor(data, true);
+		
+		return (found != null && found.compareTo(data) == 0) ? found : null;
+	}
+
+	/**
+	 * Returns the number of elements in the tree in O(1) time.  Unless the
+	 * tree was created with exactSize, the result is an estimate which may
+	 * not yet reflect updates that are in progress.
+	 * 
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+	
+	/**
+	 * Returns the smallest data element in the tree.
+	 * 
+	 * @return The smallest data element, or null if the tree is empty
+	 */
+	public T min() {
+		return successor(null, true);
+	}
+	
+	/**
+	 * Returns the biggest data element in the tree.
+	 * 
+	 * @return The biggest data element, or null if the tree is empty
+	 */
+	public T max() {
+		return predecessor(null, true);
+	}
+	
+	/**
+	 * Searches the tree for the smallest data element bigger than the passed
+	 * data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search above, or null to search for the
+	 * smallest element in the tree
+	 * @return The smallest data element bigger than the passed data, or null
+	 * if there is none
+	 */
+	public T higher(T data) {
+		return successor(data, false);
+	}
+	
+	/**
+	 * Searches the tree for the smallest data element bigger than or equal to
+	 * the passed data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search from, or null to search for the smallest
+	 * element in the tree
+	 * @return The smallest data element bigger than or equal to the passed
+	 * data, or null if there is none
+	 */
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+	
+	/**
+	 * Searches the tree for the biggest data element smaller than the passed
+	 * data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search below, or null to search for the
+	 * biggest element in the tree
+	 * @return The biggest data element smaller than the passed data, or null
+	 * if there is none
+	 */
+	public T lower(T data) {
+		return predecessor(data, false);
+	}
+	
+	/**
+	 * Searches the tree for the biggest data element smaller than or equal to
+	 * the passed data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search from, or null to search for the biggest
+	 * element in the tree
+	 * @return The biggest data element smaller than or equal to the passed
+	 * data, or null if there is none
+	 */
+	public T floor(T data) {
+		return predecessor(data, true);
+	}
+	
+	/**
+	 * Searches the tree for the smallest data element bigger than (or equal
+	 * to, if inclusive) the passed data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search from, or null to search for the smallest
+	 * element in the tree
+	 * @param inclusive True if data itself may be returned
+	 * @return The data element found, or null if there is none
+	 */
+	private T successor(T data, boolean inclusive) {
+		return neighbour(data, inclusive, true);
+	}
+	
+	/**
+	 * Searches the tree for the biggest data element smaller than (or equal
+	 * to, if inclusive) the passed data, using hand-over-hand locking.
+	 * 
+	 * @param data The data to search from, or null to search for the biggest
+	 * element in the tree
+	 * @param inclusive True if data itself may be returned
+	 * @return The data element found, or null if there is none
+	 */
+	private T predecessor(T data, boolean inclusive) {
+		return neighbour(data, inclusive, false);
+	}
+	
+	/**
+	 * Shared implementation of successor and predecessor.  Searching for the
+	 * predecessor is the mirror image of searching for the successor, so the
+	 * comparisons and the children are simply swapped.
+	 * 
+	 * @param data The data to search from, or null to search for the smallest
+	 * (or biggest) element in the tree
+	 * @param inclusive True if data itself may be returned
+	 * @param bigger True to search for the successor, false for the
+	 * predecessor
+	 * @return The data element found, or null if there is none
+	 */
+	private T neighbour(T data, boolean inclusive, boolean bigger) {
 		
 		LockableNode<T> curNode = null;
-		LockableNode<T> parentNode = null;
+		LockableNode<T> nextNode = null;
+		T candidate = null;
 		int compare = 0;
 		
-		headLock.lock();
-		if(root != null) {
-			//The tree is not empty, search the tree for the passed data
-			curNode = root;
-			curNode.lock();
-			headLock.unlock();
-			while(curNode != null) {
+		curNode = lockTop();
+		if(curNode == root) {
+			//The tree is empty
+			root.unlock();
+			return null;
+		}
+		while(true) {
+			if(data == null)
+				compare = 1;
+			else if(bigger)
 				compare = curNode.data.compareTo(data);
-				parentNode = curNode;
-				if(compare > 0) {
-					//curNode is "bigger" than the passed data, search the
-					//left subtree
-					curNode = curNode.left;
-				} else if(compare < 0) {
-					//curNode is "smaller" than the passed data, search the
-					//right subtree
-					curNode = curNode.right;
-				} else {
-					//We found the data
-					curNode.unlock();
-					return true;
-				}
-				
-				if(curNode == null) {
-					break;
-				} else {
-					curNode.lock();
-					parentNode.unlock();
-				}
+			else
+				compare = -Integer.signum(curNode.data.compareTo(data));
+			if(compare == 0 && inclusive) {
+				//Found the data itself
+				candidate = curNode.data;
+				break;
+			} else if(compare > 0) {
+				//curNode is a candidate, look for a closer one further in
+				candidate = curNode.data;
+				nextNode = bigger ? curNode.left : curNode.right;
+			} else {
+				nextNode = bigger ? curNode.right : curNode.left;
 			}
+			if(nextNode == null)
+				break;
+			nextNode.lock();
+			curNode.unlock();
+			curNode = nextNode;
+		}
+		curNode.unlock();
+		return candidate;
+	}
+	
+	/**
+	 * Atomically removes and returns the smallest data element in the tree.
+	 * 
+	 * @return The removed data element, or null if the tree is empty
+	 */
+	public T pollFirst() {
+		sizeCounter.beginUpdate();
+		try {
+			return pollNode(true);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+	
+	/**
+	 * Atomically removes and returns the biggest data element in the tree.
+	 * 
+	 * @return The removed data element, or null if the tree is empty
+	 */
+	public T pollLast() {
+		sizeCounter.beginUpdate();
+		try {
+			return pollNode(false);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+	
+	/**
+	 * Removes the smallest or biggest node of the tree.  Follows the leftmost
+	 * (or rightmost) path with hand-over-hand locking, holding the locks of
+	 * both the node and its parent, so no smaller (or bigger) data can be
+	 * inserted before the node is unlinked.  The node has no child on that
+	 * side, so it is simply replaced by its other child.
+	 * 
+	 * @param first True to remove the smallest node, false for the biggest
+	 * @return The removed data element, or null if the tree is empty
+	 */
+	private T pollNode(boolean first) {
+		
+		LockableNode<T> curNode = null;
+		LockableNode<T> parentNode = null;
+		LockableNode<T> nextNode = null;
+		LockableNode<T> child = null;
+		
+		curNode = lockTop();
+		if(curNode == root) {
+			//The tree is empty
+			root.unlock();
+			return null;
+		}
+		nextNode = first ? curNode.left : curNode.right;
+		if(nextNode == null) {
+			//The topmost node is the one to remove, which replaces the
+			//sentinel's child.  Start over from the sentinel.
+			curNode.unlock();
+			parentNode = root;
+			parentNode.lock();
+			curNode = parentNode.left;
+			if(curNode == null) {
+				parentNode.unlock();
+				return null;
+			}
+			curNode.lock();
 		} else {
+			nextNode.lock();
+			parentNode = curNode;
+			curNode = nextNode;
+		}
+		while(true) {
+			nextNode = first ? curNode.left : curNode.right;
+			if(nextNode == null)
+				break;
+			nextNode.lock();
+			parentNode.unlock();
+			parentNode = curNode;
+			curNode = nextNode;
+		}
+		child = first ? curNode.right : curNode.left;
+		if(parentNode.left == curNode)
+			setLeft(parentNode, child);
+		else
+			parentNode.right = child;
+		sizeCounter.decrement();
+		curNode.unlock();
+		parentNode.unlock();
+		return curNode.data;
+	}
+	
+	/**
+	 * Searches the tree for a data element strictly inside the range (lo, hi)
+	 * using hand-over-hand locking, preferring the one closest to the root so
+	 * that it splits the range along the left and right subtrees of its node.
+	 * 
+	 * @param lo The exclusive lower bound, or null if unbounded
+	 * @param hi The exclusive upper bound, or null if unbounded
+	 * @return A data element inside the range, or null if there is none
+	 */
+	private T splitKey(T lo, T hi) {
+		
+		LockableNode<T> curNode = null;
+		LockableNode<T> nextNode = null;
+		
+		curNode = lockTop();
+		if(curNode == root) {
 			//The tree is empty
-			headLock.unlock();
-			return false;
+			root.unlock();
+			return null;
+		}
+		while(true) {
+			if(lo != null && curNode.data.compareTo(lo) <= 0) {
+				nextNode = curNode.right;
+			} else if(hi != null && curNode.data.compareTo(hi) >= 0) {
+				nextNode = curNode.left;
+			} else {
+				curNode.unlock();
+				return curNode.data;
+			}
+			if(nextNode == null)
+				break;
+			nextNode.lock();
+			curNode.unlock();
+			curNode = nextNode;
+		}
+		curNode.unlock();
+		return null;
+	}
+	
+	/**
+	 * Returns an iterator over every element in the tree, in ascending order.
+	 * Each step of the iterator searches for the successor of the element it
+	 * returned last, so the iterator never holds a lock between calls and
+	 * never blocks other threads for longer than a search.  Like the
+	 * LockFreeBinaryTree's iterator, it is weakly consistent: elements that
+	 * are in the tree for the whole iteration are returned exactly once and
+	 * in ascending order, while concurrently inserted or removed elements may
+	 * or may not be.  The iterator does not support remove().
+	 * 
+	 * @return An iterator over the elements of the tree
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return range(null, null);
+	}
+	
+	/**
+	 * Returns an iterator over the elements in the range [lo, hi), in
+	 * ascending order.  See iterator() for the consistency guarantees of the
+	 * iterator.
+	 * 
+	 * @param lo The inclusive lower bound of the range, or null if unbounded
+	 * @param hi The exclusive upper bound of the range, or null if unbounded
+	 * @return An iterator over the elements in the range
+	 */
+	private Iterator<T> range(T lo, T hi) {
+		return new Iterator<T>() {
+			
+			T next = bound(ceiling(lo));
+			
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			@Override
+			public T next() {
+				T data = next;
+				if(data == null)
+					throw new NoSuchElementException();
+				next = bound(higher(data));
+				return data;
+			}
+			
+			private T bound(T data) {
+				return (data != null && hi != null && data.compareTo(hi) >= 0) ?
+						null : data;
+			}
+		};
+	}
+	
+	/**
+	 * Returns a spliterator over every element in the tree, in ascending
+	 * order.  The spliterator splits the tree's key range at the keys of the
+	 * nodes closest to the root, so that the halves cover the left and right
+	 * subtrees of those nodes, and traverses each part like iterator().  Only
+	 * keys are kept between calls, so other threads may keep updating the
+	 * tree while it is being scanned; see RangeSpliterator.
+	 * 
+	 * @return A spliterator over the elements of the tree
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new RangeSpliterator<T>(this::splitKey, this::range, null, null,
+				size());
+	}
+	
+	/**
+	 * Returns a sequential stream of the elements in the tree, in ascending
+	 * order.
+	 * 
+	 * @return A stream over the elements of the tree
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * Returns a parallel stream of the elements in the tree, in ascending
+	 * order.  Disjoint subtrees of the tree are scanned by different
+	 * ForkJoinPool workers.
+	 * 
+	 * @return A parallel stream over the elements of the tree
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * Writes the contents of the tree to a snapshot file, in ascending order.
+	 * Other threads may keep updating the tree while the snapshot is written;
+	 * like iterator(), the snapshot is weakly consistent rather than a
+	 * point-in-time copy of the tree.
+	 * 
+	 * @param path The file to write, which is replaced if it exists
+	 * @param codec The codec used to encode the data
+	 * @return The number of elements written
+	 * @throws IOException If writing the file fails
+	 */
+	public long snapshot(Path path, TreeCodec<T> codec) throws IOException {
+		return TreeSnapshot.write(path, iterator(), codec);
+	}
+	
+	/**
+	 * Creates a tree holding the contents of a snapshot file.  The file is
+	 * memory-mapped and, since its contents are sorted, the tree is built
+	 * directly in balanced form rather than by inserting every element.
+	 * 
+	 * @param path The snapshot file
+	 * @param codec The codec used to decode the data
+	 * @return A new tree holding the contents of the snapshot
+	 * @throws IOException If the file can't be read or isn't a valid snapshot
+	 */
+	public static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> load(Path path, TreeCodec<T> codec)
+			throws IOException {
+		
+		return load(path, codec, false, LockStrategy.INLINE);
+	}
+	
+	/**
+	 * Creates a tree holding the contents of a snapshot file, see
+	 * load(Path, TreeCodec).
+	 * 
+	 * @param path The snapshot file
+	 * @param codec The codec used to decode the data
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate
+	 * @param lockStrategy Creates the lock of every node
+	 * @return A new tree holding the contents of the snapshot
+	 * @throws IOException If the file can't be read or isn't a valid snapshot
+	 */
+	public static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> load(Path path, TreeCodec<T> codec,
+					boolean exactSize, LockStrategy lockStrategy)
+			throws IOException {
+		
+		return fromSorted(TreeSnapshot.read(path, codec), exactSize,
+				lockStrategy);
+	}
+	
+	/**
+	 * Creates a perfectly balanced tree holding the passed elements, which
+	 * must be sorted in strictly ascending order.  The tree is built bottom-up
+	 * in parallel on the common fork/join pool, without searching the tree
+	 * for each element, so building a tree of n elements takes O(n) work.
+	 * 
+	 * @param sorted The elements, in strictly ascending order
+	 * @return A new tree holding the elements
+	 * @throws IllegalArgumentException If the elements aren't sorted
+	 */
+	public static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> fromSorted(T[] sorted) {
+		return fromSorted(Arrays.asList(sorted), false, LockStrategy.INLINE);
+	}
+	
+	/**
+	 * Creates a perfectly balanced tree holding the passed elements, see
+	 * fromSorted(T[]).  Every node gets its lock from the passed strategy,
+	 * just like the nodes inserted later.
+	 * 
+	 * @param sorted The elements, in strictly ascending order
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate
+	 * @param lockStrategy Creates the lock of every node
+	 * @return A new tree holding the elements
+	 * @throws IllegalArgumentException If the elements aren't sorted
+	 */
+	public static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> fromSorted(T[] sorted,
+					boolean exactSize, LockStrategy lockStrategy) {
+		return fromSorted(Arrays.asList(sorted), exactSize, lockStrategy);
+	}
+	
+	/**
+	 * Creates a perfectly balanced tree holding the elements of a random
+	 * access list, which must be sorted in strictly ascending order.
+	 * 
+	 * @param sorted The elements, in strictly ascending order
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate
+	 * @param lockStrategy Creates the lock of every node
+	 * @return A new tree holding the elements
+	 * @throws IllegalArgumentException If the elements aren't sorted
+	 */
+	static <T extends Comparable<? super T>> FineGrainedLockingBinaryTree<T>
+			fromSorted(List<T> sorted, boolean exactSize,
+					LockStrategy lockStrategy) {
+		
+		FineGrainedLockingBinaryTree<T> tree =
+				new FineGrainedLockingBinaryTree<T>(exactSize, lockStrategy);
+		
+		for(int i = 1; i < sorted.size(); i++) {
+			if(sorted.get(i - 1).compareTo(sorted.get(i)) >= 0)
+				throw new IllegalArgumentException("Elements " + (i - 1) +
+						" and " + i + " are not in strictly ascending order");
 		}
+		tree.root.left = ForkJoinPool.commonPool().invoke(
+				new BuildTask<T>(sorted, lockStrategy, 0, sorted.size()));
+		tree.sizeCounter.add(sorted.size());
+		return tree;
+	}
+	
+	/**
+	 * Fork/join task building a balanced subtree holding elements lo
+	 * (inclusive) through hi (exclusive) of the sorted elements.
+	 * 
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 *
+	 * @param <T> The generic data type stored by the tree
+	 */
+	private static class BuildTask<T> extends RecursiveTask<LockableNode<T>> {
 		
-		//The passed data is not in the tree
-		parentNode.unlock();
-		return false;
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Subtrees with fewer elements than this are built sequentially.
+		 */
+		static final int THRESHOLD = 1 << 12;
+		
+		final List<T> elements;
+		final LockStrategy lockStrategy;
+		final int lo;
+		final int hi;
+		
+		BuildTask(List<T> elements, LockStrategy lockStrategy, int lo,
+				int hi) {
+			this.elements = elements;
+			this.lockStrategy = lockStrategy;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected LockableNode<T> compute() {
+			
+			BuildTask<T> leftTask = null;
+			LockableNode<T> curNode = null;
+			int mid = (lo + hi) >>> 1;
+			
+			if(hi - lo <= THRESHOLD)
+				return build(lo, hi);
+			
+			//Build the left subtree in another task and the right one here
+			curNode = new LockableNode<T>(elements.get(mid),
+					lockStrategy.newLock());
+			leftTask = new BuildTask<T>(elements, lockStrategy, lo, mid);
+			leftTask.fork();
+			curNode.right = new BuildTask<T>(elements, lockStrategy, mid + 1,
+					hi).compute();
+			curNode.left = leftTask.join();
+			return curNode;
+		}
+		
+		/**
+		 * Builds a subtree sequentially.
+		 */
+		private LockableNode<T> build(int lo, int hi) {
+			
+			LockableNode<T> curNode = null;
+			int mid = (lo + hi) >>> 1;
+			
+			if(lo >= hi)
+				return null;
+			curNode = new LockableNode<T>(elements.get(mid),
+					lockStrategy.newLock());
+			curNode.left = build(lo, mid);
+			curNode.right = build(mid + 1, hi);
+			return curNode;
+		}
 	}
 	
 	/**
@@ -324,7 +1015,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	 * node.
 	 */
 	public void printTree() {
-		printTree(root);
+		printTree(root.left);
 	}
 	
 	/**
@@ -0,0 +1,46 @@
+package concurrent_tree;
+
+/**
+ * Fine-Grained Locking Binary Tree Map
+ *
+ * Concurrent ordered map backed by a FineGrainedLockingBinaryTree of key-value
+ * entries.  Inserting and removing keys goes through the hand-over-hand locking tree;
+ * updating the value of a key that is already in the map is a single
+ * compare-and-set on the entry stored in the key's node and takes no locks
+ * beyond those of the search.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <K> The key type, which must implement the Comparable interface
+ * @param <V> The value type
+ */
+public class FineGrainedLockingBinaryTreeMap<K extends Comparable<? super K>, V>
+		extends AbstractBinaryTreeMap<K, V> {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	FineGrainedLockingBinaryTree<MapEntry<K, V>> tree;
+
+	/**
+	 * Instantiates an empty fine-grained locking binary tree map for use.
+	 */
+	public FineGrainedLockingBinaryTreeMap() {
+		tree = new FineGrainedLockingBinaryTree<MapEntry<K, V>>();
+	}
+
+	@Override
+	MapEntry<K, V> find(MapEntry<K, V> probe) {
+		return tree.find(probe);
+	}
+
+	@Override
+	boolean insertEntry(MapEntry<K, V> entry) {
+		return tree.insert(entry);
+	}
+
+	@Override
+	void unlink(MapEntry<K, V> entry) {
+		tree.removeInstance(entry);
+	}
+}
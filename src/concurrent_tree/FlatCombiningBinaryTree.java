@@ -0,0 +1,307 @@
+package concurrent_tree;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
+
+/**
+ * Flat-Combining Binary Tree
+ *
+ * This class implements a concurrent binary tree using flat-combining.  The
+ * tree itself is a SequentialBinaryTree; instead of synchronizing on the nodes,
+ * each thread posts its operation to a publication record in a shared
+ * publication list.  Whichever thread manages to grab the combiner lock walks
+ * the publication list and applies every pending operation to the sequential
+ * tree, while the remaining threads spin on their own publication record until
+ * their result shows up.  The tree is therefore only ever touched by one core
+ * at a time, which keeps it cache-hot and keeps contention from growing with
+ * the number of threads.
+ *
+ * Based on "Flat Combining and the Synchronization-Parallelism Tradeoff" by
+ * Hendler et. al.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class FlatCombiningBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * Operation codes posted to a publication record.  NONE signals that the
+	 * record has no pending request (i.e. the response is ready).
+	 */
+	private static final int NONE = 0;
+	private static final int INSERT = 1;
+	private static final int REMOVE = 2;
+	private static final int CONTAINS = 3;
+
+	/**
+	 * Number of combining passes a record may sit idle before the combiner
+	 * unlinks it from the publication list, and how often (in passes) the
+	 * combiner checks for idle records.
+	 */
+	private static final int MAX_AGE = 64;
+	private static final int CLEANUP_PERIOD = 32;
+
+	/**
+	 * Per-thread publication record.  A thread fills in data and then publishes
+	 * the request by writing op; the combiner writes the response and then
+	 * resets op to NONE.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 *
+	 * @param <T> The generic data type stored by the tree
+	 */
+	private static class PublicationRecord<T> {
+
+		volatile int op;
+		volatile boolean active;
+		T data;
+		T removed;
+		boolean success;
+		int lastUsed;
+		PublicationRecord<T> next;
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	SequentialBinaryTree<T> tree;
+	ReentrantLock combinerLock;
+	AtomicReference<PublicationRecord<T>> publicationList;
+	ThreadLocal<PublicationRecord<T>> localRecord;
+	int combiningPass;
+	volatile int size;
+
+	/**
+	 * Instantiates an empty flat-combining binary tree for use.
+	 */
+	public FlatCombiningBinaryTree() {
+		tree = new SequentialBinaryTree<T>();
+		combinerLock = new ReentrantLock();
+		publicationList = new AtomicReference<PublicationRecord<T>>(null);
+		localRecord = new ThreadLocal<PublicationRecord<T>>();
+		combiningPass = 0;
+		size = 0;
+	}
+
+	/**
+	 * Inserts new data into the tree.  Posts the request to the publication
+	 * list and waits for a combiner to apply it.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		return execute(INSERT, data).success;
+	}
+
+	/**
+	 * Removes the specified data from the tree.  Posts the request to the
+	 * publication list and waits for a combiner to apply it.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+		PublicationRecord<T> record = execute(REMOVE, data);
+		T removed = record.removed;
+		record.removed = null;
+		return removed;
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Posts the request to the
+	 * publication list and waits for a combiner to apply it.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+		return execute(CONTAINS, data).success;
+	}
+
+	/**
+	 * Returns the number of elements in the tree without going through the
+	 * publication list.  The combiner publishes the sequential tree's count
+	 * after every update and before responding to it, so the count is always
+	 * exact (linearizable) and no separate exact mode is needed.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Publishes an operation in the calling thread's publication record and
+	 * waits until it has been applied, either by another thread acting as the
+	 * combiner or by this thread if it manages to grab the combiner lock.
+	 *
+	 * @param op The operation to perform
+	 * @param data The data object the operation is performed on
+	 * @return The calling thread's publication record, containing the response
+	 */
+	private PublicationRecord<T> execute(int op, T data) {
+
+		PublicationRecord<T> record = localRecord.get();
+		if(record == null) {
+			record = new PublicationRecord<T>();
+			localRecord.set(record);
+		}
+
+		//Post the request.  The volatile write to op publishes data.
+		record.data = data;
+		record.op = op;
+
+		while(true) {
+			//The combiner may have unlinked our record since it was idle; make
+			//sure it is in the publication list before waiting on it
+			if(!record.active)
+				enlist(record);
+
+			if(combinerLock.tryLock()) {
+				//We are the combiner, apply every pending request
+				try {
+					combine();
+				} finally {
+					combinerLock.unlock();
+				}
+				if(record.op == NONE)
+					break;
+			} else {
+				//Somebody else is combining, spin on our own record
+				while(record.op != NONE && combinerLock.isLocked())
+					Thread.onSpinWait();
+				if(record.op == NONE)
+					break;
+			}
+		}
+
+		record.data = null;
+		return record;
+	}
+
+	/**
+	 * Pushes a publication record onto the head of the publication list.
+	 *
+	 * @param record The record to add to the publication list
+	 */
+	private void enlist(PublicationRecord<T> record) {
+
+		PublicationRecord<T> head = null;
+
+		record.active = true;
+		do {
+			head = publicationList.get();
+			record.next = head;
+		} while(!publicationList.compareAndSet(head, record));
+	}
+
+	/**
+	 * Walks the publication list and applies every pending request to the
+	 * sequential tree.  Must only be called while holding the combiner lock.
+	 * Periodically unlinks records that have been idle for a while so the
+	 * combiner doesn't keep scanning records of threads that are gone.
+	 */
+	private void combine() {
+
+		PublicationRecord<T> curRecord = null;
+		PublicationRecord<T> prevRecord = null;
+		PublicationRecord<T> nextRecord = null;
+		int op = NONE;
+		int applied = 0;
+
+		combiningPass++;
+		curRecord = publicationList.get();
+		while(curRecord != null) {
+			op = curRecord.op;
+			switch(op) {
+			case INSERT:
+				curRecord.success = tree.insert(curRecord.data);
+				size = tree.size();
+				break;
+			case REMOVE:
+				curRecord.removed = tree.remove(curRecord.data);
+				size = tree.size();
+				break;
+			case CONTAINS:
+				curRecord.success = tree.contains(curRecord.data);
+				break;
+			default:
+				break;
+			}
+			if(op != NONE) {
+				//Respond to the request
+				applied++;
+				curRecord.lastUsed = combiningPass;
+				curRecord.op = NONE;
+			}
+
+			//Unlink records which have been idle for too long.  Only the
+			//combiner removes records, and never the head (which other threads
+			//may be CASing), so this is safe against concurrent enlists.
+			nextRecord = curRecord.next;
+			if(prevRecord != null && (combiningPass % CLEANUP_PERIOD) == 0 &&
+					combiningPass - curRecord.lastUsed > MAX_AGE &&
+					curRecord.op == NONE) {
+				prevRecord.next = nextRecord;
+				curRecord.active = false;
+			} else {
+				prevRecord = curRecord;
+			}
+			curRecord = nextRecord;
+		}
+		TreeMetrics.count(Event.COMBINING_PASS);
+		TreeMetrics.record(Histogram.COMBINED_BATCH_SIZE, applied);
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out the data of each
+	 * node.  Only safe to call when no other thread is using the tree.
+	 */
+	public void printTree() {
+		tree.printTree();
+	}
+
+	/**
+	 * Driver program to test the flat-combining binary tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		FlatCombiningBinaryTree<Integer> tree =
+				new FlatCombiningBinaryTree<Integer>();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+	}
+}
@@ -1,308 +1,1098 @@
 package concurrent_tree;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import concurrent_tree.LockFreeNode.Info;
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
 
 /**
  * Lock-Free Binary Tree
- * 
- * This class implements a lock-free concurrent binary tree.  Uses
- * AtomicMarkableReferences to store references to parent and children pointers
- * and ensure atomicity when editing the tree.
- * 
+ *
+ * This class implements a lock-free concurrent binary tree, following
+ * "Non-blocking Binary Search Trees" by Ellen et. al. (concurrent_bst.pdf).
+ * The tree is leaf-oriented: the data lives in the leaves and internal nodes
+ * only route searches.  An update first flags the internal node(s) it is
+ * going to change by pointing their update field at an Info record describing
+ * the operation (see LockFreeNode).  A thread that runs into a flagged or
+ * marked node uses the Info record to help the pending operation finish
+ * before retrying its own, so a removed leaf is always physically unlinked
+ * and searches never have to skip over dead nodes.
+ *
+ * An update whose compare-and-set fails backs off as decided by the tree's
+ * ContentionManager (exponential backoff by default) and then resumes its
+ * search from the deepest node on its previous search path that hasn't
+ * changed, rather than from the root.
+ *
+ * The root is a sentinel with a key of infinity (represented by a null key)
+ * whose children start out as two infinity leaves.  Real data is always
+ * smaller than infinity, so every real leaf has a parent and a grandparent
+ * and the empty tree needs no special cases.
+ *
+ * Besides the set operations, the tree offers ordered navigation (min, max,
+ * floor, ceiling, higher and lower) and pollFirst and pollLast, which remove
+ * the smallest and biggest element with the same protocol as remove: marking
+ * the leaf's parent linearizes the removal, so the tree can be used as a
+ * lock-free priority queue.
+ *
  * @author Rob Lyerly <rlyerly@vt.edu>
  *
  * @param <T> The generic data type stored by this binary tree
  */
 public class LockFreeBinaryTree<T extends Comparable<? super T>>
-		implements ConcurrentBinaryTree<T> {
+		implements ConcurrentBinaryTree<T>, Iterable<T> {
+
+	/**
+	 * Search modes: towards a key, or down the leftmost or rightmost path of
+	 * the tree to the smallest or biggest element.
+	 */
+	private static final int KEY = 0;
+	private static final int FIRST = 1;
+	private static final int LAST = 2;
 
 	/**
 	 * Local variables and definitions.
 	 */
-	AtomicReference<LockFreeNode<T>> root;
-	
+	final LockFreeNode<T> root;
+	final SizeCounter sizeCounter;
+	final ContentionManager contention;
+
 	/**
 	 * Instantiates an empty lock-free binary tree for use.
 	 */
 	public LockFreeBinaryTree() {
-		root = new AtomicReference<LockFreeNode<T>>(null);
+		this(false, ContentionManager.EXPONENTIAL);
+	}
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate.  Updates then hold a shared lock while they run, so
+	 * the tree is no longer lock-free (see SizeCounter).
+	 */
+	public LockFreeBinaryTree(boolean exactSize) {
+		this(exactSize, ContentionManager.EXPONENTIAL);
+	}
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, see LockFreeBinaryTree(boolean)
+	 * @param contention Decides how updates back off after a failed
+	 * compare-and-set
+	 */
+	public LockFreeBinaryTree(boolean exactSize,
+			ContentionManager contention) {
+		root = new LockFreeNode<T>(null, new LockFreeNode<T>(null),
+				new LockFreeNode<T>(null));
+		sizeCounter = new SizeCounter(exactSize);
+		this.contention = contention;
+	}
+
+	/**
+	 * Compares data with the key of a node, where a null key is infinity.
+	 *
+	 * @param data The data being compared
+	 * @param node The node whose key data is compared with
+	 * @return A negative number, zero or a positive number if data is smaller
+	 * than, equal to or bigger than the node's key
+	 */
+	private int compare(T data, LockFreeNode<T> node) {
+		return (node.data == null) ? -1 : data.compareTo(node.data);
+	}
+
+	/**
+	 * Decides which child of an internal node a search continues with.  The
+	 * rightmost path ends at the infinity sentinels, so a search for the
+	 * biggest element turns left at infinity keys and right at any other.
+	 *
+	 * @param data The data being searched for, when searching by key
+	 * @param mode The search mode, KEY, FIRST or LAST
+	 * @param node The internal node
+	 * @return True to continue with the left child, false for the right one
+	 */
+	private boolean goLeft(T data, int mode, LockFreeNode<T> node) {
+		switch(mode) {
+		case FIRST:
+			return true;
+		case LAST:
+			return node.data == null;
+		default:
+			return compare(data, node) < 0;
+		}
+	}
+
+	/**
+	 * Result of a search: the leaf where the data belongs, its parent and
+	 * grandparent, and the update fields read from the parent and grandparent
+	 * before their child pointers were followed.  The whole search path is
+	 * kept, along with the update field read from each node on it, so that a
+	 * failed update can resume searching part way down the tree (see
+	 * resumePoint()).  The search mode decides whether the search is towards
+	 * a key or to the smallest or biggest element.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private class SearchResult {
+		final int mode;
+		LockFreeNode<T> gp;
+		LockFreeNode<T> p;
+		LockFreeNode<T> l;
+		Info<T> pupdate;
+		Info<T> gpupdate;
+		LockFreeNode<T>[] path;
+		Info<T>[] updates;
+		int depth;
+
+		@SuppressWarnings("unchecked")
+		SearchResult(int mode) {
+			this.mode = mode;
+			path = (LockFreeNode<T>[])new LockFreeNode<?>[32];
+			updates = (Info<T>[])new Info<?>[32];
+			depth = 0;
+		}
+
+		/**
+		 * Appends an internal node and the update field read from it to the
+		 * search path.
+		 */
+		void push(LockFreeNode<T> node, Info<T> update) {
+			if(depth == path.length) {
+				path = Arrays.copyOf(path, depth * 2);
+				updates = Arrays.copyOf(updates, depth * 2);
+			}
+			path[depth] = node;
+			updates[depth] = update;
+			depth++;
+		}
+	}
+
+	/**
+	 * Searches the tree for the leaf where the data belongs.
+	 *
+	 * @param data The data being searched for
+	 * @param result Where the search results are stored
+	 */
+	private void search(T data, SearchResult result) {
+		result.depth = 0;
+		search(data, result, root);
+	}
+
+	/**
+	 * Continues a search from a node on the search path of a previous search,
+	 * see resumePoint().  The path above the node is kept.
+	 *
+	 * @param data The data being searched for
+	 * @param result The results of the previous search, which are replaced
+	 * @param start The index of the path node to search from
+	 */
+	private void resume(T data, SearchResult result, int start) {
+		result.depth = start;
+		search(data, result, result.path[start]);
+	}
+
+	/**
+	 * Searches the subtree rooted at curNode for the leaf where the data
+	 * belongs, appending the internal nodes passed on the way to the path.
+	 *
+	 * @param data The data being searched for
+	 * @param result Where the search results are stored
+	 * @param curNode The node to start searching from
+	 */
+	private void search(T data, SearchResult result, LockFreeNode<T> curNode) {
+
+		LockFreeNode<T> parentNode = null;
+
+		while(!curNode.isLeaf()) {
+			parentNode = curNode;
+			result.push(parentNode, parentNode.update);
+			if(goLeft(data, result.mode, parentNode))
+				curNode = parentNode.getChild(Child.LEFT);
+			else
+				curNode = parentNode.getChild(Child.RIGHT);
+		}
+		TreeMetrics.record(Histogram.TRAVERSAL_DEPTH, result.depth);
+		result.l = curNode;
+		result.p = result.path[result.depth - 1];
+		result.pupdate = result.updates[result.depth - 1];
+		if(result.depth > 1) {
+			result.gp = result.path[result.depth - 2];
+			result.gpupdate = result.updates[result.depth - 2];
+		} else {
+			result.gp = null;
+			result.gpupdate = null;
+		}
 	}
-	
+
+	/**
+	 * Checks whether a node on the search path is still where the search saw
+	 * it.  Every change to a node's children and every removal of a node
+	 * (which marks it first) installs a new Info record in its update field,
+	 * and Info records are never reused, so if the update field still holds
+	 * the record read during the search and the node isn't marked, the node
+	 * is still in the tree.
+	 *
+	 * @param result The results of the search
+	 * @param index The index of the node on the search path
+	 * @return True if the node hasn't changed since it was searched
+	 */
+	private boolean unchanged(SearchResult result, int index) {
+
+		LockFreeNode<T> node = result.path[index];
+		Info<T> update = result.updates[index];
+
+		return node.update == update && node.state(update) !=
+				LockFreeNode.MARK;
+	}
+
+	/**
+	 * Finds where a retry of a failed update can resume searching: the
+	 * deepest node on the search path which, along with its parent, hasn't
+	 * changed since the search.  Since a node's key range only grows as
+	 * nodes above it are removed, the data still belongs in the subtree of
+	 * any node that is still in the tree, and the parent is still valid as
+	 * the grandparent a removal needs.  Likewise, a node on the leftmost or
+	 * rightmost path stays on it.  Each failed attempt changes the
+	 * update field of the parent or grandparent it tried to flag, so retries
+	 * never get stuck on a stale part of the path.  If no such node is found
+	 * the search resumes from the root.
+	 *
+	 * @param result The results of the failed search
+	 * @return The index of the path node to resume from
+	 */
+	private int resumePoint(SearchResult result) {
+		for(int i = result.depth - 1; i > 0; i--) {
+			if(unchanged(result, i) && unchanged(result, i - 1))
+				return i;
+		}
+		return 0;
+	}
+
 	/**
 	 * Inserts new data into the tree.
-	 * 
-	 * @param data The data to be inserted into the tree
-	 * @return True if the data was successfully inserted, false otherwise
+	 *
+	 * @param data The data to insert into the tree
+	 * @return True if the data was inserted, false if it was already in the
+	 * tree
 	 */
 	@Override
 	public boolean insert(T data) {
-		
-		LockFreeNode<T> newNode = new LockFreeNode<T>(data);
-		LockFreeNode<T> newParent = null;
-		LockFreeNode<T> curNode = null;
-		LockFreeNode<T> parentNode = null;
-		LockFreeNode<T> gparentNode = null;
-		LockFreeNode<T> ggparentNode = null;
-		int compare = 0, oldCompare = 0, reallyOldCompare = 0;
-		boolean[] marked = {false};
-		
-		retry: while(true) {
-			curNode = root.get();
-			if(curNode == null) {
-				//Tree is empty, try to insert newNode as the root
-				if(root.compareAndSet(null, newNode))
-					return true;
-				else
-					continue retry;
-			} else {
-				//Tree is not empty, iterate into the tree
-				while(curNode != null) {
-					ggparentNode = gparentNode;
-					gparentNode = parentNode;
-					parentNode = curNode;
-					reallyOldCompare = oldCompare;
-					oldCompare = compare;
-					compare = curNode.data.compareTo(data);
-					if(compare > 0) {
-						//curNode is "bigger" than the passed data, iterate
-						//into the left subtree
-						curNode = curNode.getChild(Child.LEFT, marked);
-					} else if(compare < 0) {
-						//curNode is "smaller" than the passed data, iterate
-						//into the right subtree
-						curNode = curNode.getChild(Child.RIGHT, marked);
-					} else {
-						//If this is a leaf node, then the data is already in
-						//the tree.  Otherwise, we can keep traversing
-						if(curNode.isLeaf())
-							return false; //TODO if its marked, can this thread
-										  //try and remove it then restart the
-										  //insertion?
-						else
-							curNode = curNode.getChild(Child.RIGHT, marked);
-					}
-				}
-				
-				//Check edge cases
-				if(gparentNode == null) {
-					//Edge case 1: inserting at 1st level (tree only has 1 element)
-					if(parentNode.isMarked()) {
-						root.compareAndSet(parentNode, null);
-						continue retry;
-					}
-					newParent = createSubtree(parentNode, newNode, compare);
-					if(root.compareAndSet(parentNode, newParent))
-						return true;
-					else
-						continue retry;
-				} else if(ggparentNode == null) {
-					//Edge case 2: Inserting at 2nd level (tree has 2 elements)
-					if(parentNode.isMarked()) {
-						if(oldCompare > 0)
-							parentNode = gparentNode.getChild(Child.RIGHT,
-									marked);
-						else
-							parentNode = gparentNode.getChild(Child.LEFT,
-									marked);
-						if(!root.compareAndSet(gparentNode, parentNode))
-							continue retry;
-						newParent = createSubtree(parentNode, newNode,
-								oldCompare);
-						if(root.compareAndSet(parentNode, newParent))
-							return true;
-						else
-							continue retry;
-					}
-				} else if(parentNode.isMarked()) {
-					//Edge case 3: Attempt to delete parentNode if it is marked
-					if(oldCompare > 0)
-						newParent = gparentNode.getChild(Child.RIGHT, marked);
-					else
-						newParent = gparentNode.getChild(Child.LEFT, marked);
-					if(reallyOldCompare > 0) {
-						if(!ggparentNode.insertChild(Child.LEFT, gparentNode,
-								newParent))
-							continue retry;
-					} else {
-						if(!ggparentNode.insertChild(Child.RIGHT, gparentNode,
-								newParent))
-							continue retry;
-					}
-					parentNode = newParent;
-					gparentNode = ggparentNode;
-					compare = oldCompare;
-					oldCompare = reallyOldCompare;
-				}	
-
-				//Attempt insertion
-				newParent = createSubtree(parentNode, newNode, compare);
-				if(oldCompare > 0) {
-					if(gparentNode.insertChild(Child.LEFT, parentNode,
-							newParent))							
-						return true;
-					else
-						continue retry;
-				} else {
-					if(gparentNode.insertChild(Child.RIGHT, parentNode,
-							newParent))
-						return true;
-					else
-						continue retry;
-				}
-			}
+		sizeCounter.beginUpdate();
+		try {
+			return insertLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
 		}
 	}
-	
-	/**
-	 * Helper method that creates a subtree of parentNode and curNode based on
-	 * their ordering.
-	 * 
-	 * @param parentNode The parent node which will be replaced by this subtree
-	 * @param newNode The new data being inserted into the tree
-	 * @param compare The ordering of the two nodes (set via a call to
-	 * compareTo (this is parentNode's data compared to newNode)
-	 * @return The new subtree of elements
-	 */
-	private LockFreeNode<T> createSubtree(LockFreeNode<T> parentNode,
-			LockFreeNode<T> newNode, int compare) {
-		LockFreeNode<T> newParent;
-		if(compare > 0) {
-			newParent = new LockFreeNode<T>(parentNode.data, newNode,
-					parentNode);
-		} else {
-			newParent = new LockFreeNode<T>(newNode.data, parentNode,
-					newNode);
+
+	/**
+	 * Inserts new data into the tree.  The leaf where the data belongs is
+	 * replaced by a new internal node whose children are a new leaf holding
+	 * the data and a copy of the old leaf.
+	 *
+	 * @param data The data to insert into the tree
+	 * @return True if the data was inserted, false if it was already in the
+	 * tree
+	 */
+	private boolean insertLeaf(T data) {
+
+		LockFreeNode<T> newLeaf = new LockFreeNode<T>(data);
+		LockFreeNode<T> newSibling = null;
+		LockFreeNode<T> newInternal = null;
+		SearchResult result = new SearchResult(KEY);
+		Info<T> op = null;
+		int attempts = 0, failures = 0;
+
+		search(data, result);
+		while(true) {
+			if(attempts++ > 0) {
+				TreeMetrics.count(Event.INSERT_RETRY);
+				resume(data, result, resumePoint(result));
+			}
+			if(compare(data, result.l) == 0) {
+				contention.succeeded(failures);
+				return false;
+			}
+			if(result.p.state(result.pupdate) != LockFreeNode.CLEAN) {
+				//Another operation is pending on the parent, help it first
+				help(result.p, result.pupdate);
+				continue;
+			}
+
+			//Build the replacement subtree.  The old leaf is copied so that
+			//a child pointer never points to the same leaf twice.
+			newSibling = new LockFreeNode<T>(result.l.data);
+			if(compare(data, result.l) < 0)
+				newInternal = new LockFreeNode<T>(result.l.data, newLeaf,
+						newSibling);
+			else
+				newInternal = new LockFreeNode<T>(data, newSibling, newLeaf);
+
+			//Flag the parent, then swing its child pointer
+			op = new Info<T>(result.p, result.l, newInternal);
+			if(result.p.casUpdate(result.pupdate, op)) {
+				//Flagging the parent linearizes the insert
+				sizeCounter.increment();
+				helpInsert(op);
+				contention.succeeded(failures);
+				return true;
+			}
+			help(result.p, result.p.update);
+			contention.backoff(++failures);
 		}
-		return newParent;
 	}
 
 	/**
 	 * Removes the specified data from the tree.
-	 * 
+	 *
 	 * @param data The data to remove from the tree
 	 * @return The data element that was removed, or null otherwise
 	 */
 	@Override
 	public T remove(T data) {
-		
-		LockFreeNode<T> newParent = null;
-		LockFreeNode<T> curNode = null;
-		LockFreeNode<T> parentNode = null;
-		LockFreeNode<T> gparentNode = null;
-		int compare = 0, oldCompare = 0;
-		boolean[] marked = {false};
-		
-		retry: while(true) {
-			//Check to see if the tree is empty
-			curNode = root.get();
-			if(curNode == null)
+		return remove(data, false);
+	}
+
+	/**
+	 * Removes the passed data object from the tree, but only if the tree holds
+	 * that exact object rather than just an equal one.  Used by
+	 * LockFreeBinaryTreeMap to unlink removed entries.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return True if the data object was removed, false otherwise
+	 */
+	boolean removeInstance(T data) {
+		return remove(data, true) != null;
+	}
+
+	/**
+	 * Shared implementation of remove and removeInstance.  Flags the
+	 * grandparent of the leaf, marks the parent and then replaces the parent
+	 * with the leaf's sibling.  If the parent can't be marked, the grandparent
+	 * is unflagged and the removal starts over.
+	 *
+	 * @param data The data to remove from the tree
+	 * @param sameInstance True if only the exact data object may be removed
+	 * @return The data element that was removed, or null otherwise
+	 */
+	private T remove(T data, boolean sameInstance) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(data, KEY, sameInstance);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Atomically removes and returns the smallest data element in the tree.
+	 * The removal is linearized when the leaf's parent is marked, which fails
+	 * if a smaller element was inserted next to the leaf in the meantime.
+	 *
+	 * @return The removed data element, or null if the tree is empty
+	 */
+	public T pollFirst() {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(null, FIRST, false);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Atomically removes and returns the biggest data element in the tree,
+	 * see pollFirst().
+	 *
+	 * @return The removed data element, or null if the tree is empty
+	 */
+	public T pollLast() {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(null, LAST, false);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified data, or the smallest or biggest element, from
+	 * the tree, see remove(T, boolean).
+	 *
+	 * @param data The data to remove from the tree, when removing by key
+	 * @param mode The search mode: KEY to remove data, FIRST or LAST to
+	 * remove the smallest or biggest element
+	 * @param sameInstance True if only the exact data object may be removed
+	 * @return The data element that was removed, or null otherwise
+	 */
+	private T removeLeaf(T data, int mode, boolean sameInstance) {
+
+		SearchResult result = new SearchResult(mode);
+		Info<T> op = null;
+		int attempts = 0, failures = 0;
+
+		search(data, result);
+		while(true) {
+			if(attempts++ > 0) {
+				TreeMetrics.count(Event.REMOVE_RETRY);
+				resume(data, result, resumePoint(result));
+			}
+			if((mode == KEY) ? compare(data, result.l) != 0 ||
+					(sameInstance && result.l.data != data) :
+					result.l.data == null) {
+				//Not in the tree, or the tree is empty
+				contention.succeeded(failures);
 				return null;
-			else {
-				//The tree isn't empty, iterate into the tree
-				parentNode = curNode;
-				while(curNode != null) {
-					compare = curNode.data.compareTo(data);
-					if(compare > 0) {
-						//curNode is "bigger" than the passed data, iterate
-						//into the left subtree
-						curNode = curNode.getChild(Child.LEFT, marked);
-					} else if(compare < 0) {
-						//curNode is "smaller" than the passed data, iterate
-						//into the right subtree
-						curNode = curNode.getChild(Child.RIGHT, marked);
-					} else {
-						//If this is a leaf node, then the data is in the tree
-						//and can be removed.  Otherwise, we keep traversing
-						if(curNode.isLeaf()) {
-							//Attempt to mark the current node.  Note that this
-							//is the linearization point.  Even if we can't
-							//physically remove the node, if this call succeeds
-							//then we were successful
-							if(!curNode.mark())
-								continue retry;
-							
-							if(parentNode == null) {
-								//Edge case 1: deletion of root
-								root.compareAndSet(curNode, null);
-							} else if(gparentNode == null) {
-								//Edge case 2: deletion at 1st level
-								if(compare > 0)
-									newParent = parentNode.getChild(
-											Child.RIGHT, marked);
-								else
-									newParent = parentNode.getChild(
-											Child.LEFT, marked);
-								root.compareAndSet(parentNode, newParent);
-									
-							} else {
-								//Normal deletion.  Attempt to physically
-								//remove the node
-								if(compare > 0)
-									newParent =
-										parentNode.getChild(Child.RIGHT,
-												marked);
-								else
-									newParent =
-										parentNode.getChild(Child.LEFT,
-												marked);
-								if(oldCompare > 0) {
-									gparentNode.insertChild(Child.LEFT,
-											parentNode, newParent);
-									
-								} else {
-									gparentNode.insertChild(Child.RIGHT,
-											parentNode, newParent);
-								}								
-							}
-							return curNode.data;
-						} else
-							curNode = curNode.getChild(Child.RIGHT, marked);
-					}
-					gparentNode = parentNode;
-					parentNode = curNode;
-					oldCompare = compare;
+			}
+			if(result.gp.state(result.gpupdate) != LockFreeNode.CLEAN) {
+				help(result.gp, result.gpupdate);
+				continue;
+			}
+			if(result.p.state(result.pupdate) != LockFreeNode.CLEAN) {
+				help(result.p, result.pupdate);
+				continue;
+			}
+
+			//Flag the grandparent, then try to mark the parent.  Marking the
+			//parent is the point of no return for the removal.
+			op = new Info<T>(result.gp, result.p, result.l, result.pupdate);
+			if(result.gp.casUpdate(result.gpupdate, op)) {
+				if(helpDelete(op)) {
+					//Marking the parent linearized the removal
+					sizeCounter.decrement();
+					contention.succeeded(failures);
+					return result.l.data;
 				}
-				//The data wasn't in the tree
-				return null;
+			} else {
+				help(result.gp, result.gp.update);
 			}
+			contention.backoff(++failures);
+		}
+	}
+
+	/**
+	 * Helps complete whatever operation the Info record read from a node
+	 * describes.
+	 *
+	 * @param node The node the Info record was read from
+	 * @param info The Info record
+	 */
+	private void help(LockFreeNode<T> node, Info<T> info) {
+		switch(node.state(info)) {
+		case LockFreeNode.IFLAG:
+			TreeMetrics.count(Event.HELP);
+			helpInsert(info);
+			break;
+		case LockFreeNode.MARK:
+			TreeMetrics.count(Event.MARKED_NODE_TRAVERSED);
+			TreeMetrics.count(Event.HELP);
+			helpMarked(info);
+			break;
+		case LockFreeNode.DFLAG:
+			TreeMetrics.count(Event.HELP);
+			helpDelete(info);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Completes an insert: swings the parent's child pointer from the old
+	 * leaf to the new subtree and unflags the parent.
+	 *
+	 * @param op The Info record of the insert
+	 */
+	private void helpInsert(Info<T> op) {
+		op.p.replaceChild(op.l, op.newInternal);
+		op.done = true;
+	}
+
+	/**
+	 * Attempts to mark the parent of the leaf being removed.  If the parent is
+	 * (or already was) marked, completes the removal.  Otherwise helps
+	 * whatever operation got in the way and unflags the grandparent so that
+	 * the removal can be retried.
+	 *
+	 * @param op The Info record of the delete
+	 * @return True if the removal succeeded, false if it has to be retried
+	 */
+	private boolean helpDelete(Info<T> op) {
+
+		Info<T> pupdate = null;
+
+		if(op.p.casUpdate(op.pupdate, op) || op.p.update == op) {
+			helpMarked(op);
+			return true;
 		}
+		TreeMetrics.count(Event.MARK_FAILURE);
+		pupdate = op.p.update;
+		help(op.p, pupdate);
+		op.done = true;
+		return false;
+	}
+
+	/**
+	 * Completes a removal once the parent is marked: replaces the parent with
+	 * the leaf's sibling and unflags the grandparent.
+	 *
+	 * @param op The Info record of the delete
+	 */
+	private void helpMarked(Info<T> op) {
+
+		LockFreeNode<T> sibling = null;
+
+		//The parent is marked, so its children can no longer change
+		if(op.p.getChild(Child.RIGHT) == op.l)
+			sibling = op.p.getChild(Child.LEFT);
+		else
+			sibling = op.p.getChild(Child.RIGHT);
+		op.gp.replaceChild(op.p, sibling);
+		op.done = true;
 	}
 
 	/**
 	 * Checks to see if the specified data is in the tree.
-	 * 
+	 *
 	 * @param data The data being searched for in the tree
 	 * @return True if the data is in the tree, false otherwise
 	 */
 	@Override
 	public boolean contains(T data) {
-		
-		LockFreeNode<T> curNode = root.get();
+		return find(data) != null;
+	}
+
+	/**
+	 * Searches the tree for the specified data and returns the data object
+	 * stored in the tree, which may be a different (but equal) object than the
+	 * passed one.
+	 *
+	 * @param data The data being searched for in the tree
+	 * @return The data object stored in the tree, or null if the data is not
+	 * in the tree
+	 */
+	T find(T data) {
+
+		LockFreeNode<T> curNode = root;
+		int depth = 0;
+
+		//Search for the leaf where the data belongs
+		while(!curNode.isLeaf()) {
+			depth++;
+			if(compare(data, curNode) < 0)
+				curNode = curNode.getChild(Child.LEFT);
+			else
+				curNode = curNode.getChild(Child.RIGHT);
+		}
+		TreeMetrics.record(Histogram.TRAVERSAL_DEPTH, depth);
+		return (compare(data, curNode) == 0) ? curNode.data : null;
+	}
+
+	/*
+	 * Ordered navigation.  Each operation descends the tree once, without
+	 * restarting, remembering the subtree next to the last turn away from the
+	 * answer; if the leaf where the data belongs isn't the answer, the answer
+	 * is the smallest or biggest element of that subtree.  Like range(),
+	 * these are weakly consistent: elements which are in the tree for the
+	 * whole call are never skipped, but elements inserted or removed during
+	 * the call may or may not be taken into account.
+	 */
+
+	/**
+	 * Returns the smallest data element in the tree.
+	 *
+	 * @return The smallest data element, or null if the tree is empty
+	 */
+	public T min() {
+		return extreme(root, FIRST);
+	}
+
+	/**
+	 * Returns the biggest data element in the tree.
+	 *
+	 * @return The biggest data element, or null if the tree is empty
+	 */
+	public T max() {
+		return extreme(root, LAST);
+	}
+
+	/**
+	 * Returns the smallest data element bigger than or equal to the passed
+	 * data.
+	 *
+	 * @param data The data to search from
+	 * @return The data element found, or null if there is none
+	 */
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	/**
+	 * Returns the smallest data element bigger than the passed data.
+	 *
+	 * @param data The data to search above
+	 * @return The data element found, or null if there is none
+	 */
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Returns the biggest data element smaller than or equal to the passed
+	 * data.
+	 *
+	 * @param data The data to search from
+	 * @return The data element found, or null if there is none
+	 */
+	public T floor(T data) {
+		return predecessor(data, true);
+	}
+
+	/**
+	 * Returns the biggest data element smaller than the passed data.
+	 *
+	 * @param data The data to search below
+	 * @return The data element found, or null if there is none
+	 */
+	public T lower(T data) {
+		return predecessor(data, false);
+	}
+
+	/**
+	 * Follows the leftmost or rightmost path of a subtree down to a leaf.
+	 *
+	 * @param curNode The root of the subtree
+	 * @param mode FIRST for the smallest element, LAST for the biggest
+	 * @return The leaf's data, or null if the subtree holds no real data
+	 */
+	private T extreme(LockFreeNode<T> curNode, int mode) {
+		while(!curNode.isLeaf()) {
+			if(goLeft(null, mode, curNode))
+				curNode = curNode.getChild(Child.LEFT);
+			else
+				curNode = curNode.getChild(Child.RIGHT);
+		}
+		return curNode.data;
+	}
+
+	/**
+	 * Searches the tree for the smallest data element bigger than (or equal
+	 * to, if inclusive) the passed data.
+	 *
+	 * @param data The data to search from
+	 * @param inclusive True if data itself may be returned
+	 * @return The data element found, or null if there is none
+	 */
+	private T successor(T data, boolean inclusive) {
+
+		LockFreeNode<T> curNode = root;
+		LockFreeNode<T> rightSubtree = null;
 		int compare = 0;
-		boolean[] marked = {false};
-		
-		//Tree is not empty, search the tree
-		while(curNode != null) {
+
+		while(!curNode.isLeaf()) {
+			if(compare(data, curNode) < 0) {
+				//Everything on the right is bigger than data
+				rightSubtree = curNode.getChild(Child.RIGHT);
+				curNode = curNode.getChild(Child.LEFT);
+			} else {
+				curNode = curNode.getChild(Child.RIGHT);
+			}
+		}
+		if(curNode.data != null) {
 			compare = curNode.data.compareTo(data);
-			if(compare > 0) {
-				//curNode is "bigger" than the passed data, search the left
-				//subtree
-				curNode = curNode.getChild(Child.LEFT, marked);
-			} else if(compare < 0) {
-				//curNode is "smaller" than the passed data, search the
-				//right subtree
-				curNode = curNode.getChild(Child.RIGHT, marked);
+			if(compare > 0 || (compare == 0 && inclusive))
+				return curNode.data;
+		}
+		return (rightSubtree == null) ? null : extreme(rightSubtree, FIRST);
+	}
+
+	/**
+	 * Searches the tree for the biggest data element smaller than (or equal
+	 * to, if inclusive) the passed data.
+	 *
+	 * @param data The data to search from
+	 * @param inclusive True if data itself may be returned
+	 * @return The data element found, or null if there is none
+	 */
+	private T predecessor(T data, boolean inclusive) {
+
+		LockFreeNode<T> curNode = root;
+		LockFreeNode<T> leftSubtree = null;
+		int compare = 0;
+
+		while(!curNode.isLeaf()) {
+			if(compare(data, curNode) < 0) {
+				curNode = curNode.getChild(Child.LEFT);
 			} else {
-				//Found the data, make sure that it isn't an internal node and
-				//that is isn't marked.
-				if(curNode.isLeaf())
-					return !curNode.isMarked();
-				else
-					curNode = curNode.getChild(Child.RIGHT, marked);
+				//Everything on the left is smaller than data
+				leftSubtree = curNode.getChild(Child.LEFT);
+				curNode = curNode.getChild(Child.RIGHT);
 			}
-		}			
-		//Tree is empty or data is not in the tree
-		return false;
+		}
+		if(curNode.data != null) {
+			compare = curNode.data.compareTo(data);
+			if(compare < 0 || (compare == 0 && inclusive))
+				return curNode.data;
+		}
+		return (leftSubtree == null) ? null : extreme(leftSubtree, LAST);
+	}
+
+	/**
+	 * Writes the contents of the tree to a snapshot file, in ascending order.
+	 * Other threads may keep updating the tree while the snapshot is written;
+	 * like iterator(), the snapshot is weakly consistent rather than a
+	 * point-in-time copy of the tree.
+	 *
+	 * @param path The file to write, which is replaced if it exists
+	 * @param codec The codec used to encode the data
+	 * @return The number of elements written
+	 * @throws IOException If writing the file fails
+	 */
+	public long snapshot(Path path, TreeCodec<T> codec) throws IOException {
+		return TreeSnapshot.write(path, iterator(), codec);
+	}
+
+	/**
+	 * Creates a tree holding the contents of a snapshot file.  The file is
+	 * memory-mapped and, since its contents are sorted, the tree is built
+	 * directly in balanced form rather than by inserting every element.
+	 *
+	 * @param path The snapshot file
+	 * @param codec The codec used to decode the data
+	 * @return A new tree holding the contents of the snapshot
+	 * @throws IOException If the file can't be read or isn't a valid snapshot
+	 */
+	public static <T extends Comparable<? super T>> LockFreeBinaryTree<T> load(
+			Path path, TreeCodec<T> codec) throws IOException {
+
+		return fromSorted(TreeSnapshot.read(path, codec));
+	}
+
+	/**
+	 * Creates a perfectly balanced tree holding the passed elements, which
+	 * must be sorted in strictly ascending order.  The tree is built bottom-up
+	 * in parallel on the common fork/join pool, without searching the tree
+	 * for each element, so building a tree of n elements takes O(n) work.
+	 *
+	 * @param sorted The elements, in strictly ascending order
+	 * @return A new tree holding the elements
+	 * @throws IllegalArgumentException If the elements aren't sorted
+	 */
+	public static <T extends Comparable<? super T>> LockFreeBinaryTree<T>
+			fromSorted(T[] sorted) {
+		return fromSorted(Arrays.asList(sorted));
+	}
+
+	/**
+	 * Creates a perfectly balanced tree holding the elements of a random
+	 * access list, which must be sorted in strictly ascending order.
+	 *
+	 * @param sorted The elements, in strictly ascending order
+	 * @return A new tree holding the elements
+	 * @throws IllegalArgumentException If the elements aren't sorted
+	 */
+	static <T extends Comparable<? super T>> LockFreeBinaryTree<T> fromSorted(
+			List<T> sorted) {
+
+		LockFreeBinaryTree<T> tree = new LockFreeBinaryTree<T>();
+
+		for(int i = 1; i < sorted.size(); i++) {
+			if(sorted.get(i - 1).compareTo(sorted.get(i)) >= 0)
+				throw new IllegalArgumentException("Elements " + (i - 1) +
+						" and " + i + " are not in strictly ascending order");
+		}
+
+		//Every real leaf lives in the root's left subtree, along with the
+		//sentinel leaf that was the root's left child in the empty tree
+		tree.root.left = ForkJoinPool.commonPool().invoke(
+				new BuildTask<T>(sorted, 0, sorted.size() + 1));
+		tree.sizeCounter.add(sorted.size());
+		return tree;
+	}
+
+	/**
+	 * Fork/join task building a balanced subtree holding leaves lo
+	 * (inclusive) through hi (exclusive) of the sorted elements, where leaf
+	 * elements.size() is the sentinel infinity leaf.  Each routing node's key
+	 * is the smallest key of its right subtree.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 *
+	 * @param <T> The generic data type stored by the tree
+	 */
+	private static class BuildTask<T> extends RecursiveTask<LockFreeNode<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Subtrees with fewer leaves than this are built sequentially.
+		 */
+		static final int THRESHOLD = 1 << 12;
+
+		final List<T> elements;
+		final int lo;
+		final int hi;
+
+		BuildTask(List<T> elements, int lo, int hi) {
+			this.elements = elements;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected LockFreeNode<T> compute() {
+
+			BuildTask<T> leftTask = null;
+			LockFreeNode<T> rightChild = null;
+			int mid = (lo + hi) >>> 1;
+
+			if(hi - lo <= THRESHOLD)
+				return build(lo, hi);
+
+			//Build the left half in another task and the right half here
+			leftTask = new BuildTask<T>(elements, lo, mid);
+			leftTask.fork();
+			rightChild = new BuildTask<T>(elements, mid, hi).compute();
+			return new LockFreeNode<T>(key(mid), leftTask.join(), rightChild);
+		}
+
+		/**
+		 * Builds a subtree sequentially.
+		 */
+		private LockFreeNode<T> build(int lo, int hi) {
+
+			int mid = (lo + hi) >>> 1;
+
+			if(hi - lo == 1)
+				return new LockFreeNode<T>(key(lo));
+			return new LockFreeNode<T>(key(mid), build(lo, mid),
+					build(mid, hi));
+		}
+
+		/**
+		 * Returns the key of a leaf, where the last leaf is infinity.
+		 */
+		private T key(int leaf) {
+			return (leaf < elements.size()) ? elements.get(leaf) : null;
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the tree in O(1) time, without
+	 * walking over routing nodes and sentinel leaves.  Unless the tree was
+	 * created with exactSize, the result is an estimate which may not yet
+	 * reflect updates that are in progress.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+
+	/**
+	 * Returns an iterator over every element in the tree, in ascending order.
+	 * See range() for the consistency guarantees of the iterator.
+	 *
+	 * @return An iterator over the elements of the tree
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new RangeIterator(null, null);
+	}
+
+	/**
+	 * Returns an iterator over the elements in the range [lo, hi), in
+	 * ascending order.  The iterator walks the leaf-oriented structure of the
+	 * tree directly, skipping routing nodes, sentinel leaves and any subtree
+	 * that lies entirely outside of the range, so a scan costs one descent
+	 * plus the size of the range rather than a contains() per candidate.
+	 *
+	 * The iterator is weakly consistent: it never blocks or restarts concurrent
+	 * inserts and removes and never throws ConcurrentModificationException.
+	 * Elements are returned in strictly ascending order and at most once.
+	 * Every element that is in the tree (and in range) for the whole lifetime
+	 * of the iteration is returned; elements inserted or removed while the
+	 * iteration is in progress may or may not be.  It is not a linearizable
+	 * snapshot of the tree.  The iterator does not support remove().
+	 *
+	 * @param lo The inclusive lower bound of the range, or null if unbounded
+	 * @param hi The exclusive upper bound of the range, or null if unbounded
+	 * @return An iterator over the elements in the range
+	 */
+	public Iterator<T> range(T lo, T hi) {
+		return new RangeIterator(lo, hi);
+	}
+
+	/**
+	 * Searches the tree for a key strictly inside the range (lo, hi),
+	 * preferring the one closest to the root so that it splits the range
+	 * along the left and right subtrees of its node.  Routing keys are used
+	 * as well as data, so the key may belong to an element which has already
+	 * been removed.
+	 *
+	 * @param lo The exclusive lower bound, or null if unbounded
+	 * @param hi The exclusive upper bound, or null if unbounded
+	 * @return A key inside the range, or null if there is none
+	 */
+	private T splitKey(T lo, T hi) {
+
+		LockFreeNode<T> curNode = root;
+
+		while(curNode != null) {
+			if(curNode.data == null || (hi != null &&
+					curNode.data.compareTo(hi) >= 0))
+				curNode = curNode.getChild(Child.LEFT);
+			else if(lo != null && curNode.data.compareTo(lo) <= 0)
+				curNode = curNode.getChild(Child.RIGHT);
+			else
+				return curNode.data;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a spliterator over every element in the tree, in ascending
+	 * order.  The spliterator splits the tree's key range at the keys of the
+	 * nodes closest to the root, so that the halves cover the left and right
+	 * subtrees of those nodes, and traverses each part with range().  See
+	 * range() and RangeSpliterator for the consistency guarantees.
+	 *
+	 * @return A spliterator over the elements of the tree
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new RangeSpliterator<T>(this::splitKey, RangeIterator::new,
+				null, null, size());
+	}
+
+	/**
+	 * Returns a sequential stream of the elements in the tree, in ascending
+	 * order.
+	 *
+	 * @return A stream over the elements of the tree
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel stream of the elements in the tree, in ascending
+	 * order.  Disjoint subtrees of the tree are scanned by different
+	 * ForkJoinPool workers.
+	 *
+	 * @return A parallel stream over the elements of the tree
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Weakly consistent iterator over a range of the tree.  Keeps a stack of
+	 * the right subtrees which still have to be visited, so that the traversal
+	 * is performed lazily as the iterator is advanced.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private class RangeIterator implements Iterator<T> {
+
+		ArrayDeque<LockFreeNode<T>> stack;
+		T lo;
+		T hi;
+		T next;
+		T last;
+
+		/**
+		 * Creates an iterator over the range [lo, hi).
+		 *
+		 * @param lo The inclusive lower bound, or null if unbounded
+		 * @param hi The exclusive upper bound, or null if unbounded
+		 */
+		public RangeIterator(T lo, T hi) {
+			this.lo = lo;
+			this.hi = hi;
+			stack = new ArrayDeque<LockFreeNode<T>>();
+			stack.push(root);
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			T data = next;
+			if(data == null)
+				throw new NoSuchElementException();
+			last = data;
+			advance();
+			return data;
+		}
+
+		/**
+		 * Finds the next leaf in the range, or sets next to null if there are
+		 * no more.
+		 */
+		private void advance() {
+
+			LockFreeNode<T> curNode = null;
+			LockFreeNode<T> leftChild = null;
+			LockFreeNode<T> rightChild = null;
+
+			next = null;
+			while(!stack.isEmpty()) {
+				curNode = stack.pop();
+
+				//Descend to the leftmost leaf of the subtree.  Each child
+				//pointer is read exactly once.
+				leftChild = curNode.getChild(Child.LEFT);
+				rightChild = curNode.getChild(Child.RIGHT);
+				while(leftChild != null) {
+					if(lo != null && compare(lo, curNode) >= 0) {
+						//The left subtree only holds data smaller than lo
+						curNode = rightChild;
+					} else {
+						//The right subtree only holds data at least as big as
+						//curNode, so skip it if that is already out of range
+						if(hi == null || compare(hi, curNode) > 0)
+							stack.push(rightChild);
+						curNode = leftChild;
+					}
+					leftChild = curNode.getChild(Child.LEFT);
+					rightChild = curNode.getChild(Child.RIGHT);
+				}
+
+				//curNode is a leaf, check to see if it should be returned.
+				//Subtrees may have moved up the tree since they were pushed,
+				//so the range and ordering are rechecked for every leaf.
+				//Sentinel leaves hold no data.
+				if(curNode.data == null)
+					continue;
+				if(lo != null && curNode.data.compareTo(lo) < 0)
+					continue;
+				if(hi != null && curNode.data.compareTo(hi) >= 0)
+					continue;
+				if(last != null && curNode.data.compareTo(last) <= 0)
+					continue;
+				next = curNode.data;
+				return;
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,45 @@
+package concurrent_tree;
+
+/**
+ * Lock-Free Binary Tree Map
+ *
+ * Concurrent ordered map backed by a LockFreeBinaryTree of key-value entries.
+ * Inserting and removing keys goes through the lock-free tree; updating the
+ * value of a key that is already in the map is a single compare-and-set on the
+ * entry stored in the key's leaf.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <K> The key type, which must implement the Comparable interface
+ * @param <V> The value type
+ */
+public class LockFreeBinaryTreeMap<K extends Comparable<? super K>, V>
+		extends AbstractBinaryTreeMap<K, V> {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	LockFreeBinaryTree<MapEntry<K, V>> tree;
+
+	/**
+	 * Instantiates an empty lock-free binary tree map for use.
+	 */
+	public LockFreeBinaryTreeMap() {
+		tree = new LockFreeBinaryTree<MapEntry<K, V>>();
+	}
+
+	@Override
+	MapEntry<K, V> find(MapEntry<K, V> probe) {
+		return tree.find(probe);
+	}
+
+	@Override
+	boolean insertEntry(MapEntry<K, V> entry) {
+		return tree.insert(entry);
+	}
+
+	@Override
+	void unlink(MapEntry<K, V> entry) {
+		tree.removeInstance(entry);
+	}
+}
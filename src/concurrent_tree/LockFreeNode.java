@@ -1,160 +1,237 @@
 package concurrent_tree;
 
-import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * LockFreeNode Class
- * 
+ *
  * Implementation of a node (data wrapper) to be used in conjunction with the
- * LockFreeBinaryTree class.  This implementation uses AtomicMarkableReferences
- * to store pointers (and a logical removal flag) to the parent and children
- * nodes.
- * 
+ * LockFreeBinaryTree class.  The child pointers are plain volatile fields that
+ * are updated with compare-and-set through VarHandles, so updating a child
+ * doesn't allocate anything.
+ *
+ * Internal nodes also carry an update field, which points to the Info record
+ * of the last operation that flagged or marked the node (see "Non-blocking
+ * Binary Search Trees" by Ellen et. al.).  The paper stores a (state, info)
+ * pair in the update field; here the state is derived from the Info record
+ * instead, so that the field can be updated with a single reference
+ * compare-and-set:
+ *
+ * 	- no Info record, or a finished one: CLEAN
+ * 	- an unfinished insert: IFLAG
+ * 	- an unfinished delete flagging the node as a grandparent: DFLAG
+ * 	- a delete whose parent is this node: MARK (which is permanent)
+ *
+ * Every Info record is a new object, so an update field never returns to a
+ * value it held before and comparing references is free of ABA problems.
+ *
  * @author Rob Lyerly <rlyerly@vt.edu>
  *
  * @param <T> The generic data type being wrapped by the LockFreeNode class
  */
 public class LockFreeNode<T> {
-	
-	
+
 	/**
-	 * Private class that allows coupling both child pointers to a single
-	 * reference.  This is useful when testing for logical removal because
-	 * we can represent both child pointers with a single
-	 * AtomicMarkableReference, ensuring atomicity when checking/setting a node
-	 * as logically deleted.
-	 *  
-	 * @author Rob Lyerly <rlyerly@vt.edu>
-	 *
-	 * @param <T> The generic data type being wrapped by the LockFreeNode class
+	 * States of an internal node's update field.
 	 */
-	public class ChildNodes {
-		
-		LockFreeNode<T> left;
-		LockFreeNode<T> right;
-		
-		/**
-		 * Creates a ChildNodes object with no child pointers.
-		 */
-		public ChildNodes() {
-			left = null;
-			right = null;
-		}
-		
-		/**
-		 * Creates a ChildNodes object with the passed child nodes.
-		 * @param left The new left child of the current node.
-		 * @param right The new right child of the current node.
-		 */
-		public ChildNodes(LockFreeNode<T> left, LockFreeNode<T> right) {
-			this.left = left;
-			this.right = right;
+	public static final int CLEAN = 0;
+	public static final int IFLAG = 1;
+	public static final int DFLAG = 2;
+	public static final int MARK = 3;
+
+	/**
+	 * VarHandles used to compare-and-set the child pointers and the update
+	 * field.
+	 */
+	private static final VarHandle LEFT;
+	private static final VarHandle RIGHT;
+	private static final VarHandle UPDATE;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			LEFT = lookup.findVarHandle(LockFreeNode.class, "left",
+					LockFreeNode.class);
+			RIGHT = lookup.findVarHandle(LockFreeNode.class, "right",
+					LockFreeNode.class);
+			UPDATE = lookup.findVarHandle(LockFreeNode.class, "update",
+					Info.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
 		}
 	}
-	
+
 	public T data;
-	public AtomicMarkableReference<ChildNodes> children;
-	
+	volatile LockFreeNode<T> left;
+	volatile LockFreeNode<T> right;
+	volatile Info<T> update;
+
 	/**
-	 * Instantiates a LockFreeNode object.  Stores a reference to the data
-	 * and instantiates the AtomicMarkableReferences for the parent and
-	 * children nodes.
-	 * @param data The data object stored in the LockFreeNode
+	 * Instantiates a leaf LockFreeNode object.  Stores a reference to the
+	 * data.
+	 * @param data The data object stored in the LockFreeNode, or null for a
+	 * sentinel leaf
 	 */
 	public LockFreeNode(T data) {
 		this.data = data;
-		children = new AtomicMarkableReference<ChildNodes>(
-				new ChildNodes(), false);
+		left = null;
+		right = null;
+		update = null;
 	}
-	
+
 	/**
-	 * Overloaded constructor.  Instantiates a LockFreeNode object with the
-	 * specified data and child references.
-	 * 
-	 * @param data The data object stored in the LockFreeNode
+	 * Overloaded constructor.  Instantiates an internal LockFreeNode object
+	 * with the specified data and child references.
+	 *
+	 * @param data The data object stored in the LockFreeNode, or null for
+	 * infinity
 	 * @param leftChild The left child of this new node
 	 * @param rightChild The right child of this new node
 	 */
 	public LockFreeNode(T data, LockFreeNode<T> leftChild,
 			LockFreeNode<T> rightChild) {
 		this.data = data;
-		children = new AtomicMarkableReference<ChildNodes>(
-				new ChildNodes(leftChild, rightChild), false);
+		left = leftChild;
+		right = rightChild;
+		update = null;
 	}
-	
+
 	/**
 	 * Attempt to set the child pointer of the LockFreeNode.
 	 * @param cp Which child pointer to attempt to set (LEFT or RIGHT)
-	 * @param child The new child pointer
+	 * @param oldChild The expected current child pointer
+	 * @param newChild The new child pointer
 	 * @return True if the child pointer was set, false otherwise
 	 */
 	public boolean insertChild(Child cp, LockFreeNode<T> oldChild,
 			LockFreeNode<T> newChild) {
-		
-		//Create a new child node object to try and replace the current one
-		ChildNodes curCN = children.getReference();
-		ChildNodes newCN;
 		switch(cp) {
-		case RIGHT:
-			if(curCN.right != oldChild)
-				return false;
-			newCN = new ChildNodes(curCN.left, newChild);
-			break;
 		case LEFT:
-			if(curCN.left != oldChild)
-				return false;
-			newCN = new ChildNodes(newChild, curCN.right);
-			break;
+			return LEFT.compareAndSet(this, oldChild, newChild);
+		case RIGHT:
+			return RIGHT.compareAndSet(this, oldChild, newChild);
 		default:
 			return false;
 		}
-		
-		//Attempt to replace the old childNodes object with the new one
-		return children.compareAndSet(curCN, newCN, false, false);
 	}
-	
+
+	/**
+	 * Replaces whichever child pointer currently points to oldChild.  A node
+	 * is only ever the child of a single pointer, so this fails if oldChild
+	 * isn't a child of this node any more.
+	 * @param oldChild The expected current child
+	 * @param newChild The new child
+	 * @return True if the child pointer was set, false otherwise
+	 */
+	public boolean replaceChild(LockFreeNode<T> oldChild,
+			LockFreeNode<T> newChild) {
+		if(left == oldChild)
+			return LEFT.compareAndSet(this, oldChild, newChild);
+		else
+			return RIGHT.compareAndSet(this, oldChild, newChild);
+	}
+
 	/**
 	 * Getter shorthand method to grab a child pointer.
 	 * @param cp Which child pointer to access
 	 * @return A pointer to the child node, or null if no child exists for that
 	 * subtree
 	 */
-	public LockFreeNode<T> getChild(Child cp, boolean[] marked) {
+	public LockFreeNode<T> getChild(Child cp) {
 		switch(cp) {
 		case LEFT:
-			return this.children.get(marked).left;
+			return left;
 		case RIGHT:
-			return this.children.get(marked).right;
+			return right;
 		default:
 			return null;
 		}
 	}
-	
+
 	/**
-	 * Attempts to mark the node as logically deleted.
-	 * @return True if the node was marked, false otherwise.
+	 * Attempts to replace the update field of the node.
+	 * @param expected The Info record the node is expected to hold
+	 * @param info The new Info record
+	 * @return True if the update field was replaced, false otherwise
 	 */
-	public boolean mark() {
-		return children.attemptMark(children.getReference(), true);
+	boolean casUpdate(Info<T> expected, Info<T> info) {
+		return UPDATE.compareAndSet(this, expected, info);
 	}
-	
+
 	/**
-	 * Getter method that returns whether or not the current node is marked.
-	 * @return True if the node is marked for deletion, false otherwise
+	 * Returns the state of the node, given an Info record read from its update
+	 * field.
+	 * @param info The Info record read from this node's update field
+	 * @return CLEAN, IFLAG, DFLAG or MARK
 	 */
-	public boolean isMarked() {
-		return children.isMarked();
+	int state(Info<T> info) {
+		if(info == null)
+			return CLEAN;
+		if(!info.isInsert() && info.p == this)
+			return MARK;
+		if(info.done)
+			return CLEAN;
+		return info.isInsert() ? IFLAG : DFLAG;
 	}
-	
+
 	/**
-	 * Returns whether or not the current node is a leaf node by checking the
-	 * child references.
+	 * Returns whether or not the current node is a leaf node.  Internal nodes
+	 * always have two children.
 	 * @return True if the node is a leaf node, false otherwise
 	 */
 	public boolean isLeaf() {
-		//TODO less checking? Shouldn't they both be the same, and so we should
-		//only need to check one of them?
-		return (children.getReference().left == null &&
-				children.getReference().right == null);
+		return left == null;
+	}
+
+	/**
+	 * Info record describing a pending insert or delete, which any thread
+	 * that runs into it can use to help complete the operation.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 *
+	 * @param <T> The generic data type stored in the tree
+	 */
+	static final class Info<T> {
+
+		final LockFreeNode<T> gp;
+		final LockFreeNode<T> p;
+		final LockFreeNode<T> l;
+		final LockFreeNode<T> newInternal;
+		final Info<T> pupdate;
+		volatile boolean done;
+
+		/**
+		 * Creates the Info record of an insert, which replaces the leaf l (a
+		 * child of p) with the subtree newInternal.
+		 */
+		Info(LockFreeNode<T> p, LockFreeNode<T> l,
+				LockFreeNode<T> newInternal) {
+			this.gp = null;
+			this.p = p;
+			this.l = l;
+			this.newInternal = newInternal;
+			this.pupdate = null;
+		}
+
+		/**
+		 * Creates the Info record of a delete, which removes the leaf l and its
+		 * parent p from the tree.  pupdate is the Info record p held when the
+		 * delete looked at it, and is the value expected when p is marked.
+		 */
+		Info(LockFreeNode<T> gp, LockFreeNode<T> p, LockFreeNode<T> l,
+				Info<T> pupdate) {
+			this.gp = gp;
+			this.p = p;
+			this.l = l;
+			this.newInternal = null;
+			this.pupdate = pupdate;
+		}
+
+		/**
+		 * Returns whether or not this is the Info record of an insert.
+		 */
+		boolean isInsert() {
+			return newInternal != null;
+		}
 	}
 }
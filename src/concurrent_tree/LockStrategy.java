@@ -0,0 +1,73 @@
+package concurrent_tree;
+
+/**
+ * Lock Strategy Interface
+ *
+ * Decides which kind of lock guards each node of a lock-based tree.  How well
+ * hand-over-hand locking scales depends on how the locks behave when threads
+ * pile up behind the nodes near the root: locks which spin on a shared word
+ * keep bouncing its cache line between the waiting threads, while queue locks
+ * make each waiter spin on a word of its own and hand the lock over in FIFO
+ * order.  Which one wins depends on the machine and the workload, so the
+ * fine-grained locking tree takes the strategy as a parameter and every
+ * strategy can be benchmarked under the same workload.
+ *
+ * Strategies are shared by every thread using a tree, so implementations must
+ * be thread safe.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public interface LockStrategy {
+
+	/**
+	 * Creates the lock of a new node.
+	 *
+	 * @return The new lock, or null to keep the lock inline in the node (see
+	 * LockableNode)
+	 */
+	NodeLock newLock();
+
+	/**
+	 * Keeps the lock inline in the node as a single int, spinning briefly and
+	 * then parking when it's contended.  This is the default, and the only
+	 * strategy which doesn't allocate a lock object for every node.
+	 */
+	LockStrategy INLINE = () -> null;
+
+	/**
+	 * Gives every node a java.util.concurrent.locks.ReentrantLock.
+	 */
+	LockStrategy REENTRANT = ReentrantNodeLock::new;
+
+	/**
+	 * Test-and-test-and-set locks with exponential backoff (see
+	 * ContentionManager.EXPONENTIAL).
+	 */
+	LockStrategy TTAS = ttas(ContentionManager.EXPONENTIAL);
+
+	/**
+	 * CLH queue locks, whose waiters spin on their predecessor's queue node.
+	 */
+	LockStrategy CLH = CLHLock::new;
+
+	/**
+	 * MCS queue locks, whose waiters spin on their own queue node.
+	 */
+	LockStrategy MCS = MCSLock::new;
+
+	/**
+	 * Creates a strategy of test-and-test-and-set locks.  A thread waiting for
+	 * a lock spins reading it until it looks free and only then tries to grab
+	 * it; after every failed attempt it backs off as decided by the contention
+	 * manager.  The manager is shared by every lock of the tree, so an
+	 * adaptive manager follows the contention of the whole tree.
+	 *
+	 * @param backoff The contention manager deciding how long to back off
+	 * @return The new strategy
+	 */
+	static LockStrategy ttas(ContentionManager backoff) {
+		if(backoff == null)
+			throw new NullPointerException("backoff");
+		return () -> new TTASLock(backoff);
+	}
+}
@@ -1,46 +1,128 @@
 package concurrent_tree;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * LockableNode Class
- * 
+ *
  * Extends the basic Node class (used in the sequential binary tree) to add
- * an external lock used for fine-grained locking.
- * 
+ * a lock used for fine-grained locking.
+ *
+ * By default the lock is an int stored inline in the node rather than a
+ * separate ReentrantLock object, which shrinks the footprint of every node
+ * from 80 bytes (32 for the node plus 48 for an uncontended ReentrantLock) to
+ * 32.
+ * The lock word is 0 when the node is unlocked, 1 when it's locked and 2 when
+ * it's locked and threads may be waiting for it.  A thread which finds the
+ * node locked spins for a while and then parks in the shared ParkingLot, so
+ * only nodes which are actually contended ever get a wait queue.  The lock
+ * is not reentrant.  Nodes may instead be given a separate NodeLock, created
+ * by the tree's LockStrategy, in which case the inline lock goes unused.
+ *
  * @author Rob Lyerly <rlyerly@vt.edu>
- * @param <T> The generic data type being wrapped by the LockableNode class. 
+ * @param <T> The generic data type being wrapped by the LockableNode class.
  */
 public class LockableNode<T> {
-	
+
+	/**
+	 * Number of times to retry a locked node before parking.
+	 */
+	private static final int SPINS = 64;
+
+	/**
+	 * VarHandle used to compare-and-set the lock word.
+	 */
+	private static final VarHandle LOCK_STATE;
+	static {
+		try {
+			LOCK_STATE = MethodHandles.lookup().findVarHandle(
+					LockableNode.class, "lockState", int.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	public T data;
-	public ReentrantLock lock;
 	public LockableNode<T> left;
 	public LockableNode<T> right;
-	
+	private volatile int lockState;
+	private final NodeLock lock;
+
 	/**
-	 * Instantiates a LockableNode object.  Stores a reference to the data,
-	 * instantiates the lock and sets up the LockableNode pointers.
+	 * Instantiates a LockableNode object with an inline lock.  Stores a
+	 * reference to the data and sets up the LockableNode pointers.  The node
+	 * starts out unlocked.
 	 * @param data The data object wrapped by the new LockableNode
 	 */
 	public LockableNode(T data) {
+		this(data, null);
+	}
+
+	/**
+	 * Instantiates a LockableNode object guarded by the passed lock.
+	 * @param data The data object wrapped by the new LockableNode
+	 * @param lock The unlocked lock of the node, or null to use the inline
+	 * lock
+	 */
+	public LockableNode(T data, NodeLock lock) {
 		this.data = data;
+		this.lock = lock;
 		left = null;
 		right = null;
-		lock = new ReentrantLock();
 	}
-	
+
 	/**
-	 * Convenience method to lock the LockableNode's lock.
+	 * Locks the LockableNode, blocking until it's available.
 	 */
 	public void lock() {
-		lock.lock();
+		if(lock != null) {
+			lock.lock();
+			return;
+		}
+		if(LOCK_STATE.compareAndSet(this, 0, 1)) {
+			if(TreeMetrics.ENABLED)
+				TreeMetrics.count(TreeMetrics.Event.LOCK_ACQUIRED);
+			return;
+		}
+		lockSlow();
 	}
-	
+
 	/**
-	 * Convenience method to unlock the LockableNode's lock.
+	 * Unlocks the LockableNode, waking up a waiting thread if there is one.
 	 */
 	public void unlock() {
-		lock.unlock();
+		if(lock != null) {
+			lock.unlock();
+			return;
+		}
+		if((int)LOCK_STATE.getAndSet(this, 0) == 2)
+			ParkingLot.unparkOne(this);
+	}
+
+	/**
+	 * Acquires the lock after the fast path failed.  Spins while the lock is
+	 * held without waiters, then marks the lock as having waiters and parks
+	 * until it can grab it.  A thread which acquires the lock here always
+	 * leaves it marked as having waiters, since it can't tell whether others
+	 * are still parked; at worst this costs one spurious unparkOne().
+	 */
+	private void lockSlow() {
+
+		long start = (TreeMetrics.ENABLED ? System.nanoTime() : 0);
+
+		for(int i = 0; i < SPINS; i++) {
+			int state = lockState;
+			if(state == 0 && LOCK_STATE.compareAndSet(this, 0, 1)) {
+				TreeMetrics.lockContended(start);
+				return;
+			}
+			else if(state == 2)
+				break;
+			Thread.onSpinWait();
+		}
+		while((int)LOCK_STATE.getAndSet(this, 2) != 0)
+			ParkingLot.park(this, () -> lockState == 2);
+		TreeMetrics.lockContended(start);
 	}
 }
@@ -0,0 +1,445 @@
+package concurrent_tree;
+
+import java.util.Arrays;
+
+import concurrent_tree.LongLockFreeNode.Info;
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
+
+/**
+ * Long Lock-Free Binary Tree
+ *
+ * This class implements a primitive long specialization of the
+ * LockFreeBinaryTree.  The algorithm is identical, but keys are stored in the
+ * nodes as primitive longs and compared inline, avoiding the boxed key objects,
+ * the pointer chase to reach them and the virtual compareTo call at every level
+ * of the tree.  The ConcurrentBinaryTree methods taking a Long are provided for
+ * compatibility and simply unbox their argument.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class LongLockFreeBinaryTree implements ConcurrentBinaryTree<Long> {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final LongLockFreeNode root;
+	final SizeCounter sizeCounter;
+	final ContentionManager contention;
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 */
+	public LongLockFreeBinaryTree() {
+		this(false, ContentionManager.EXPONENTIAL);
+	}
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate.  Updates then hold a shared lock while they run, so
+	 * the tree is no longer lock-free (see SizeCounter).
+	 */
+	public LongLockFreeBinaryTree(boolean exactSize) {
+		this(exactSize, ContentionManager.EXPONENTIAL);
+	}
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, see LongLockFreeBinaryTree(boolean)
+	 * @param contention Decides how updates back off after a failed
+	 * compare-and-set
+	 */
+	public LongLockFreeBinaryTree(boolean exactSize,
+			ContentionManager contention) {
+		root = LongLockFreeNode.infinity(LongLockFreeNode.infinity(null, null),
+				LongLockFreeNode.infinity(null, null));
+		sizeCounter = new SizeCounter(exactSize);
+		this.contention = contention;
+	}
+
+	/**
+	 * Result of a search, see LockFreeBinaryTree.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static class SearchResult {
+		LongLockFreeNode gp;
+		LongLockFreeNode p;
+		LongLockFreeNode l;
+		Info pupdate;
+		Info gpupdate;
+		LongLockFreeNode[] path = new LongLockFreeNode[32];
+		Info[] updates = new Info[32];
+		int depth = 0;
+
+		void push(LongLockFreeNode node, Info update) {
+			if(depth == path.length) {
+				path = Arrays.copyOf(path, depth * 2);
+				updates = Arrays.copyOf(updates, depth * 2);
+			}
+			path[depth] = node;
+			updates[depth] = update;
+			depth++;
+		}
+	}
+
+	/**
+	 * Searches the tree for the leaf where the key belongs.
+	 *
+	 * @param data The key being searched for
+	 * @param result Where the search results are stored
+	 */
+	private void search(long data, SearchResult result) {
+		result.depth = 0;
+		search(data, result, root);
+	}
+
+	/**
+	 * Continues a search from a node on the search path of a previous search,
+	 * see LockFreeBinaryTree.resumePoint().
+	 *
+	 * @param data The key being searched for
+	 * @param result The results of the previous search, which are replaced
+	 * @param start The index of the path node to search from
+	 */
+	private void resume(long data, SearchResult result, int start) {
+		result.depth = start;
+		search(data, result, result.path[start]);
+	}
+
+	/**
+	 * Searches the subtree rooted at curNode for the leaf where the key
+	 * belongs, appending the internal nodes passed on the way to the path.
+	 *
+	 * @param data The key being searched for
+	 * @param result Where the search results are stored
+	 * @param curNode The node to start searching from
+	 */
+	private void search(long data, SearchResult result,
+			LongLockFreeNode curNode) {
+
+		LongLockFreeNode parentNode = null;
+
+		while(!curNode.isLeaf()) {
+			parentNode = curNode;
+			result.push(parentNode, parentNode.update);
+			if(parentNode.compareKey(data) < 0)
+				curNode = parentNode.getChild(Child.LEFT);
+			else
+				curNode = parentNode.getChild(Child.RIGHT);
+		}
+		TreeMetrics.record(Histogram.TRAVERSAL_DEPTH, result.depth);
+		result.l = curNode;
+		result.p = result.path[result.depth - 1];
+		result.pupdate = result.updates[result.depth - 1];
+		if(result.depth > 1) {
+			result.gp = result.path[result.depth - 2];
+			result.gpupdate = result.updates[result.depth - 2];
+		} else {
+			result.gp = null;
+			result.gpupdate = null;
+		}
+	}
+
+	/**
+	 * Checks whether a node on the search path is still where the search saw
+	 * it, see LockFreeBinaryTree.unchanged().
+	 *
+	 * @param result The results of the search
+	 * @param index The index of the node on the search path
+	 * @return True if the node hasn't changed since it was searched
+	 */
+	private boolean unchanged(SearchResult result, int index) {
+
+		LongLockFreeNode node = result.path[index];
+		Info update = result.updates[index];
+
+		return node.update == update && node.state(update) !=
+				LockFreeNode.MARK;
+	}
+
+	/**
+	 * Finds where a retry of a failed update can resume searching, see
+	 * LockFreeBinaryTree.resumePoint().
+	 *
+	 * @param result The results of the failed search
+	 * @return The index of the path node to resume from
+	 */
+	private int resumePoint(SearchResult result) {
+		for(int i = result.depth - 1; i > 0; i--) {
+			if(unchanged(result, i) && unchanged(result, i - 1))
+				return i;
+		}
+		return 0;
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(Long data) {
+		return insert(data.longValue());
+	}
+
+	/**
+	 * Inserts a new key into the tree.
+	 *
+	 * @param data The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 */
+	public boolean insert(long data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Inserts a new key into the tree, see LockFreeBinaryTree.
+	 *
+	 * @param data The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 */
+	private boolean insertLeaf(long data) {
+
+		LongLockFreeNode newLeaf = new LongLockFreeNode(data);
+		LongLockFreeNode newSibling = null;
+		LongLockFreeNode newInternal = null;
+		SearchResult result = new SearchResult();
+		Info op = null;
+		int attempts = 0, failures = 0;
+
+		search(data, result);
+		while(true) {
+			if(attempts++ > 0) {
+				TreeMetrics.count(Event.INSERT_RETRY);
+				resume(data, result, resumePoint(result));
+			}
+			if(result.l.compareKey(data) == 0) {
+				contention.succeeded(failures);
+				return false;
+			}
+			if(result.p.state(result.pupdate) != LockFreeNode.CLEAN) {
+				help(result.p, result.pupdate);
+				continue;
+			}
+
+			//Build the replacement subtree around a copy of the old leaf
+			newSibling = new LongLockFreeNode(result.l, null, null);
+			if(result.l.compareKey(data) < 0)
+				newInternal = new LongLockFreeNode(result.l, newLeaf,
+						newSibling);
+			else
+				newInternal = new LongLockFreeNode(data, newSibling, newLeaf);
+
+			op = new Info(result.p, result.l, newInternal);
+			if(result.p.casUpdate(result.pupdate, op)) {
+				sizeCounter.increment();
+				helpInsert(op);
+				contention.succeeded(failures);
+				return true;
+			}
+			help(result.p, result.p.update);
+			contention.backoff(++failures);
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data to remove from the tree
+	 * @return The data element that was removed, or null otherwise
+	 */
+	@Override
+	public Long remove(Long data) {
+		return remove(data.longValue()) ? data : null;
+	}
+
+	/**
+	 * Removes the specified key from the tree.
+	 *
+	 * @param data The key to remove from the tree
+	 * @return True if the key was removed, false if it wasn't in the tree
+	 */
+	public boolean remove(long data) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified key from the tree, see LockFreeBinaryTree.
+	 *
+	 * @param data The key to remove from the tree
+	 * @return True if the key was removed, false if it wasn't in the tree
+	 */
+	private boolean removeLeaf(long data) {
+
+		SearchResult result = new SearchResult();
+		Info op = null;
+		int attempts = 0, failures = 0;
+
+		search(data, result);
+		while(true) {
+			if(attempts++ > 0) {
+				TreeMetrics.count(Event.REMOVE_RETRY);
+				resume(data, result, resumePoint(result));
+			}
+			if(result.l.compareKey(data) != 0) {
+				contention.succeeded(failures);
+				return false;
+			}
+			if(result.gp.state(result.gpupdate) != LockFreeNode.CLEAN) {
+				help(result.gp, result.gpupdate);
+				continue;
+			}
+			if(result.p.state(result.pupdate) != LockFreeNode.CLEAN) {
+				help(result.p, result.pupdate);
+				continue;
+			}
+
+			op = new Info(result.gp, result.p, result.l, result.pupdate);
+			if(result.gp.casUpdate(result.gpupdate, op)) {
+				if(helpDelete(op)) {
+					sizeCounter.decrement();
+					contention.succeeded(failures);
+					return true;
+				}
+			} else {
+				help(result.gp, result.gp.update);
+			}
+			contention.backoff(++failures);
+		}
+	}
+
+	/**
+	 * Helps complete whatever operation the Info record read from a node
+	 * describes.
+	 *
+	 * @param node The node the Info record was read from
+	 * @param info The Info record
+	 */
+	private void help(LongLockFreeNode node, Info info) {
+		switch(node.state(info)) {
+		case LockFreeNode.IFLAG:
+			TreeMetrics.count(Event.HELP);
+			helpInsert(info);
+			break;
+		case LockFreeNode.MARK:
+			TreeMetrics.count(Event.MARKED_NODE_TRAVERSED);
+			TreeMetrics.count(Event.HELP);
+			helpMarked(info);
+			break;
+		case LockFreeNode.DFLAG:
+			TreeMetrics.count(Event.HELP);
+			helpDelete(info);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Completes an insert.
+	 *
+	 * @param op The Info record of the insert
+	 */
+	private void helpInsert(Info op) {
+		op.p.replaceChild(op.l, op.newInternal);
+		op.done = true;
+	}
+
+	/**
+	 * Attempts to mark the parent of the leaf being removed, completing the
+	 * removal if it is marked and unflagging the grandparent otherwise.
+	 *
+	 * @param op The Info record of the delete
+	 * @return True if the removal succeeded, false if it has to be retried
+	 */
+	private boolean helpDelete(Info op) {
+
+		Info pupdate = null;
+
+		if(op.p.casUpdate(op.pupdate, op) || op.p.update == op) {
+			helpMarked(op);
+			return true;
+		}
+		TreeMetrics.count(Event.MARK_FAILURE);
+		pupdate = op.p.update;
+		help(op.p, pupdate);
+		op.done = true;
+		return false;
+	}
+
+	/**
+	 * Completes a removal once the parent is marked.
+	 *
+	 * @param op The Info record of the delete
+	 */
+	private void helpMarked(Info op) {
+
+		LongLockFreeNode sibling = null;
+
+		if(op.p.getChild(Child.RIGHT) == op.l)
+			sibling = op.p.getChild(Child.LEFT);
+		else
+			sibling = op.p.getChild(Child.RIGHT);
+		op.gp.replaceChild(op.p, sibling);
+		op.done = true;
+	}
+
+	/**
+	 * Returns the number of keys in the tree in O(1) time.  Unless the tree
+	 * was created with exactSize, the result is an estimate which may not yet
+	 * reflect updates that are in progress.
+	 *
+	 * @return The number of keys in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+
+	/**
+	 * Checks to see if the specified data is in the tree.
+	 *
+	 * @param data The data being searched for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(Long data) {
+		return contains(data.longValue());
+	}
+
+	/**
+	 * Checks to see if the specified key is in the tree.
+	 *
+	 * @param data The key being searched for in the tree
+	 * @return True if the key is in the tree, false otherwise
+	 */
+	public boolean contains(long data) {
+
+		LongLockFreeNode curNode = root;
+
+		//Search for the leaf where the key belongs
+		while(!curNode.isLeaf()) {
+			if(curNode.compareKey(data) < 0)
+				curNode = curNode.getChild(Child.LEFT);
+			else
+				curNode = curNode.getChild(Child.RIGHT);
+		}
+		return curNode.compareKey(data) == 0;
+	}
+}
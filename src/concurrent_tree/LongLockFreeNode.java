@@ -0,0 +1,245 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * LongLockFreeNode Class
+ *
+ * Primitive long specialization of LockFreeNode, used in conjunction with the
+ * LongLockFreeBinaryTree class.  The key is stored directly in the node as a
+ * long rather than as a reference to a boxed object.  Since every long is a
+ * valid key, the sentinel nodes carry an explicit infinite flag instead of a
+ * null key.  As with LockFreeNode, the child pointers and the update field are
+ * plain volatile fields that are updated with compare-and-set through
+ * VarHandles, and the state of an internal node is derived from the Info
+ * record its update field points to.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class LongLockFreeNode {
+
+	/**
+	 * VarHandles used to compare-and-set the child pointers and the update
+	 * field.
+	 */
+	private static final VarHandle LEFT;
+	private static final VarHandle RIGHT;
+	private static final VarHandle UPDATE;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			LEFT = lookup.findVarHandle(LongLockFreeNode.class, "left",
+					LongLockFreeNode.class);
+			RIGHT = lookup.findVarHandle(LongLockFreeNode.class, "right",
+					LongLockFreeNode.class);
+			UPDATE = lookup.findVarHandle(LongLockFreeNode.class, "update",
+					Info.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	public final long data;
+	public final boolean infinite;
+	volatile LongLockFreeNode left;
+	volatile LongLockFreeNode right;
+	volatile Info update;
+
+	/**
+	 * Instantiates a leaf LongLockFreeNode object.  Stores the key.
+	 * @param data The key stored in the LongLockFreeNode
+	 */
+	public LongLockFreeNode(long data) {
+		this(data, false, null, null);
+	}
+
+	/**
+	 * Overloaded constructor.  Instantiates an internal LongLockFreeNode
+	 * object with the specified key and child references.
+	 *
+	 * @param data The key stored in the LongLockFreeNode
+	 * @param leftChild The left child of this new node
+	 * @param rightChild The right child of this new node
+	 */
+	public LongLockFreeNode(long data, LongLockFreeNode leftChild,
+			LongLockFreeNode rightChild) {
+		this(data, false, leftChild, rightChild);
+	}
+
+	/**
+	 * Overloaded constructor.  Instantiates a LongLockFreeNode object with the
+	 * same key (which may be infinity) as another node.
+	 *
+	 * @param key The node whose key is copied
+	 * @param leftChild The left child of this new node, or null for a leaf
+	 * @param rightChild The right child of this new node, or null for a leaf
+	 */
+	public LongLockFreeNode(LongLockFreeNode key, LongLockFreeNode leftChild,
+			LongLockFreeNode rightChild) {
+		this(key.data, key.infinite, leftChild, rightChild);
+	}
+
+	private LongLockFreeNode(long data, boolean infinite,
+			LongLockFreeNode leftChild, LongLockFreeNode rightChild) {
+		this.data = data;
+		this.infinite = infinite;
+		left = leftChild;
+		right = rightChild;
+		update = null;
+	}
+
+	/**
+	 * Creates a sentinel node whose key is bigger than every long.
+	 * @param leftChild The left child of the sentinel, or null for a leaf
+	 * @param rightChild The right child of the sentinel, or null for a leaf
+	 * @return The sentinel node
+	 */
+	public static LongLockFreeNode infinity(LongLockFreeNode leftChild,
+			LongLockFreeNode rightChild) {
+		return new LongLockFreeNode(0, true, leftChild, rightChild);
+	}
+
+	/**
+	 * Attempt to set the child pointer of the LongLockFreeNode.
+	 * @param cp Which child pointer to attempt to set (LEFT or RIGHT)
+	 * @param oldChild The expected current child pointer
+	 * @param newChild The new child pointer
+	 * @return True if the child pointer was set, false otherwise
+	 */
+	public boolean insertChild(Child cp, LongLockFreeNode oldChild,
+			LongLockFreeNode newChild) {
+		switch(cp) {
+		case LEFT:
+			return LEFT.compareAndSet(this, oldChild, newChild);
+		case RIGHT:
+			return RIGHT.compareAndSet(this, oldChild, newChild);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces whichever child pointer currently points to oldChild.  A node
+	 * is only ever the child of a single pointer, so this fails if oldChild
+	 * isn't a child of this node any more.
+	 * @param oldChild The expected current child
+	 * @param newChild The new child
+	 * @return True if the child pointer was set, false otherwise
+	 */
+	public boolean replaceChild(LongLockFreeNode oldChild,
+			LongLockFreeNode newChild) {
+		if(left == oldChild)
+			return LEFT.compareAndSet(this, oldChild, newChild);
+		else
+			return RIGHT.compareAndSet(this, oldChild, newChild);
+	}
+
+	/**
+	 * Getter shorthand method to grab a child pointer.
+	 * @param cp Which child pointer to access
+	 * @return A pointer to the child node, or null if no child exists for that
+	 * subtree
+	 */
+	public LongLockFreeNode getChild(Child cp) {
+		switch(cp) {
+		case LEFT:
+			return left;
+		case RIGHT:
+			return right;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Compares a key with the key of this node.
+	 * @param key The key being compared
+	 * @return A negative number, zero or a positive number if key is smaller
+	 * than, equal to or bigger than the node's key
+	 */
+	public int compareKey(long key) {
+		return infinite ? -1 : Long.compare(key, data);
+	}
+
+	/**
+	 * Attempts to replace the update field of the node.
+	 * @param expected The Info record the node is expected to hold
+	 * @param info The new Info record
+	 * @return True if the update field was replaced, false otherwise
+	 */
+	boolean casUpdate(Info expected, Info info) {
+		return UPDATE.compareAndSet(this, expected, info);
+	}
+
+	/**
+	 * Returns the state of the node, given an Info record read from its update
+	 * field.  See LockFreeNode.
+	 * @param info The Info record read from this node's update field
+	 * @return CLEAN, IFLAG, DFLAG or MARK
+	 */
+	int state(Info info) {
+		if(info == null)
+			return LockFreeNode.CLEAN;
+		if(!info.isInsert() && info.p == this)
+			return LockFreeNode.MARK;
+		if(info.done)
+			return LockFreeNode.CLEAN;
+		return info.isInsert() ? LockFreeNode.IFLAG : LockFreeNode.DFLAG;
+	}
+
+	/**
+	 * Returns whether or not the current node is a leaf node.  Internal nodes
+	 * always have two children.
+	 * @return True if the node is a leaf node, false otherwise
+	 */
+	public boolean isLeaf() {
+		return left == null;
+	}
+
+	/**
+	 * Info record describing a pending insert or delete.  See LockFreeNode.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	static final class Info {
+
+		final LongLockFreeNode gp;
+		final LongLockFreeNode p;
+		final LongLockFreeNode l;
+		final LongLockFreeNode newInternal;
+		final Info pupdate;
+		volatile boolean done;
+
+		/**
+		 * Creates the Info record of an insert.
+		 */
+		Info(LongLockFreeNode p, LongLockFreeNode l,
+				LongLockFreeNode newInternal) {
+			this.gp = null;
+			this.p = p;
+			this.l = l;
+			this.newInternal = newInternal;
+			this.pupdate = null;
+		}
+
+		/**
+		 * Creates the Info record of a delete.
+		 */
+		Info(LongLockFreeNode gp, LongLockFreeNode p, LongLockFreeNode l,
+				Info pupdate) {
+			this.gp = gp;
+			this.p = p;
+			this.l = l;
+			this.newInternal = null;
+			this.pupdate = pupdate;
+		}
+
+		/**
+		 * Returns whether or not this is the Info record of an insert.
+		 */
+		boolean isInsert() {
+			return newInternal != null;
+		}
+	}
+}
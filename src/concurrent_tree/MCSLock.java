@@ -0,0 +1,84 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * MCS Lock
+ *
+ * Mellor-Crummey and Scott's queue lock.  The lock is the tail of an explicit
+ * queue of QueueNodes: a thread appends its node by swapping it into the tail,
+ * links it behind its predecessor's node and spins on its own node until the
+ * predecessor hands the lock over.  Like the CLH lock, every waiter spins on a
+ * different node and threads get the lock in FIFO order, but waiters spin on
+ * memory they allocated themselves and a free lock keeps no node.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class MCSLock implements NodeLock {
+
+	/**
+	 * VarHandle used to swap the tail.
+	 */
+	private static final VarHandle TAIL;
+	static {
+		try {
+			TAIL = MethodHandles.lookup().findVarHandle(MCSLock.class, "tail",
+					QueueNode.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	private volatile QueueNode tail;
+	private QueueNode owner;
+
+	/**
+	 * Creates an unlocked MCS lock.
+	 */
+	MCSLock() {
+		tail = null;
+	}
+
+	@Override
+	public void lock() {
+
+		QueueNode node = QueueNode.take();
+		QueueNode pred = null;
+		long start = 0;
+
+		node.next = null;
+		node.locked = true;
+		pred = (QueueNode)TAIL.getAndSet(this, node);
+		if(pred != null) {
+			start = (TreeMetrics.ENABLED ? System.nanoTime() : 0);
+			pred.next = node;
+			for(int spins = 0; node.locked; spins++)
+				QueueNode.pause(spins);
+			TreeMetrics.lockContended(start);
+		} else
+			TreeMetrics.count(TreeMetrics.Event.LOCK_ACQUIRED);
+		owner = node;
+	}
+
+	@Override
+	public void unlock() {
+
+		QueueNode node = owner;
+
+		if(node.next == null) {
+			//No successor yet, free the lock unless one is being linked in
+			if(TAIL.compareAndSet(this, node, null)) {
+				QueueNode.recycle(node);
+				return;
+			}
+			for(int spins = 0; node.next == null; spins++)
+				QueueNode.pause(spins);
+		}
+		node.next.locked = false;
+		QueueNode.recycle(node);
+	}
+}
@@ -0,0 +1,74 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * MapEntry Class
+ *
+ * Key-value pair stored as the data object of the trees backing the concurrent
+ * binary tree maps.  Entries are ordered by their key only.  The value is
+ * updated in place with compare-and-set through a VarHandle, so updating the
+ * value of an existing key doesn't touch the tree.  Removing a key first
+ * replaces its value with the REMOVED tombstone (the linearization point of
+ * the removal) and only then unlinks the entry from the tree; an entry whose
+ * value is REMOVED is never updated again.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class MapEntry<K extends Comparable<? super K>, V>
+		implements Comparable<MapEntry<K, V>> {
+
+	/**
+	 * Tombstone value of a removed entry.
+	 */
+	static final Object REMOVED = new Object();
+
+	/**
+	 * VarHandle used to compare-and-set the value.
+	 */
+	private static final VarHandle VALUE;
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(MapEntry.class,
+					"value", Object.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	final K key;
+	volatile Object value;
+
+	/**
+	 * Instantiates a MapEntry with the passed key and value.
+	 * @param key The key of the entry
+	 * @param value The value of the entry, or null for an entry which is only
+	 * used to search the tree
+	 */
+	MapEntry(K key, V value) {
+		this.key = key;
+		this.value = value;
+	}
+
+	/**
+	 * Attempts to atomically replace the value of the entry.
+	 * @param expected The expected current value
+	 * @param newValue The new value (or REMOVED)
+	 * @return True if the value was replaced, false otherwise
+	 */
+	boolean casValue(Object expected, Object newValue) {
+		return VALUE.compareAndSet(this, expected, newValue);
+	}
+
+	/**
+	 * Orders entries by their keys.
+	 */
+	@Override
+	public int compareTo(MapEntry<K, V> other) {
+		return key.compareTo(other.key);
+	}
+}
@@ -0,0 +1,25 @@
+package concurrent_tree;
+
+/**
+ * Node Lock Interface
+ *
+ * A mutual exclusion lock guarding one node of a lock-based tree, created by
+ * the tree's LockStrategy.  Node locks only need to support what hand-over-hand
+ * locking uses: they aren't reentrant, and a lock is always released by the
+ * thread that acquired it, although a thread may hold any number of locks at
+ * once.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public interface NodeLock {
+
+	/**
+	 * Acquires the lock, waiting until it's available.
+	 */
+	void lock();
+
+	/**
+	 * Releases the lock, which must be held by the calling thread.
+	 */
+	void unlock();
+}
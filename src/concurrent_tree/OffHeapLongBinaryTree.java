@@ -0,0 +1,586 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
+
+/**
+ * Off-Heap Long Binary Tree
+ *
+ * This class implements a concurrent binary tree of long keys whose nodes live
+ * outside of the Java heap, in a slab of direct ByteBuffers which is allocated
+ * up front.  Nodes are addressed by int indexes into the slab (index 0 is
+ * null), so storing more keys doesn't create any more objects for the garbage
+ * collector to trace; the heap footprint of the tree is a handful of objects
+ * no matter how many keys it holds.
+ *
+ * The tree is leaf-oriented like the LockFreeBinaryTree, with a sentinel root
+ * and two sentinel leaves whose keys are infinity, and is synchronized with
+ * optimistic lock coupling.  Every node has a lock word holding a version
+ * number, whose lowest bit is set while the node is locked.  Searches take no
+ * locks: they read a node's version, read the node and then validate that the
+ * version didn't change, restarting from the root if it did.  Updates search
+ * the same way and then lock only the nodes they modify by compare-and-setting
+ * the lock word from the version they read, so a node that changed after it
+ * was read can never be locked.
+ *
+ * Removed nodes are recycled through a lock-free free list.  Since a node is
+ * always locked (bumping its version) before it is freed, a search that reads
+ * a node which is freed or reused underneath it fails validation.  The head of
+ * the free list is stamped with a counter that is incremented by every pop, so
+ * a pop can't succeed against a head that was popped and pushed back in the
+ * meantime (the ABA problem).
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class OffHeapLongBinaryTree implements ConcurrentBinaryTree<Long> {
+
+	/**
+	 * Default capacity (in keys) of the tree.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/**
+	 * Layout of a node in the slab.
+	 */
+	private static final int KEY = 0;
+	private static final int LEFT = 8;
+	private static final int RIGHT = 12;
+	private static final int LOCK = 16;
+	private static final int INFINITE = 20;
+	private static final int NODE_SIZE = 24;
+
+	/**
+	 * The slab is split into chunks of 2^CHUNK_SHIFT nodes, since a single
+	 * ByteBuffer can't hold more than 2GB.
+	 */
+	private static final int CHUNK_SHIFT = 20;
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	/**
+	 * Null node index, and the index of the root.
+	 */
+	private static final int NULL = 0;
+	private static final int ROOT = 1;
+
+	/**
+	 * VarHandle used to compare-and-set lock words in the slab.
+	 */
+	private static final VarHandle INT =
+			MethodHandles.byteBufferViewVarHandle(int[].class,
+					ByteOrder.nativeOrder());
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final ByteBuffer[] chunks;
+	final int maxNodes;
+	AtomicInteger nextNode;
+	AtomicLong freeList;
+	final SizeCounter sizeCounter;
+
+	/**
+	 * Instantiates an empty off-heap binary tree with the default capacity.
+	 */
+	public OffHeapLongBinaryTree() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	/**
+	 * Instantiates an empty off-heap binary tree able to hold the passed
+	 * number of keys, allocating its whole slab.
+	 *
+	 * @param capacity The maximum number of keys the tree can hold
+	 */
+	public OffHeapLongBinaryTree(int capacity) {
+		this(capacity, false);
+	}
+
+	/**
+	 * Instantiates an empty off-heap binary tree able to hold the passed
+	 * number of keys, allocating its whole slab.
+	 *
+	 * @param capacity The maximum number of keys the tree can hold
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, which makes every update more expensive (see
+	 * SizeCounter)
+	 */
+	public OffHeapLongBinaryTree(int capacity, boolean exactSize) {
+
+		long nodes = 2L * capacity + 4;
+		int numChunks = (int)((nodes + CHUNK_MASK) >>> CHUNK_SHIFT);
+		int chunkNodes = 0;
+
+		if(capacity < 0 || nodes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid capacity " +
+					capacity);
+		maxNodes = (int)nodes;
+		chunks = new ByteBuffer[numChunks];
+		for(int i = 0; i < numChunks; i++) {
+			chunkNodes = (int)Math.min(1 << CHUNK_SHIFT,
+					nodes - ((long)i << CHUNK_SHIFT));
+			chunks[i] = ByteBuffer.allocateDirect(chunkNodes * NODE_SIZE)
+					.order(ByteOrder.nativeOrder());
+		}
+		freeList = new AtomicLong(NULL);
+
+		//Node 0 is null, node 1 is the root and nodes 2 and 3 are the
+		//sentinel leaves
+		nextNode = new AtomicInteger(4);
+		initNode(2, 0, true, NULL, NULL);
+		initNode(3, 0, true, NULL, NULL);
+		initNode(ROOT, 0, true, 2, 3);
+		sizeCounter = new SizeCounter(exactSize);
+	}
+
+	/**
+	 * Returns the maximum number of keys the tree can hold.
+	 * @return The capacity of the tree
+	 */
+	public int capacity() {
+		return (maxNodes - 4) / 2;
+	}
+
+	/**
+	 * Returns the number of bytes of off-heap memory held by the tree.
+	 * @return The size of the slab in bytes
+	 */
+	public long offHeapBytes() {
+		return (long)maxNodes * NODE_SIZE;
+	}
+
+	/*
+	 * Accessors for the fields of a node in the slab.
+	 */
+
+	private ByteBuffer chunk(int node) {
+		return chunks[node >>> CHUNK_SHIFT];
+	}
+
+	private static int offset(int node) {
+		return (node & CHUNK_MASK) * NODE_SIZE;
+	}
+
+	private long key(int node) {
+		return chunk(node).getLong(offset(node) + KEY);
+	}
+
+	private boolean isInfinite(int node) {
+		return chunk(node).getInt(offset(node) + INFINITE) != 0;
+	}
+
+	private int left(int node) {
+		return chunk(node).getInt(offset(node) + LEFT);
+	}
+
+	private int right(int node) {
+		return chunk(node).getInt(offset(node) + RIGHT);
+	}
+
+	private boolean isLeaf(int node) {
+		return left(node) == NULL;
+	}
+
+	private void setLeft(int node, int child) {
+		chunk(node).putInt(offset(node) + LEFT, child);
+	}
+
+	private void setRight(int node, int child) {
+		chunk(node).putInt(offset(node) + RIGHT, child);
+	}
+
+	/**
+	 * Writes every field of a node except its lock word, which keeps counting
+	 * versions across reuses of the node.
+	 */
+	private void initNode(int node, long key, boolean infinite, int left,
+			int right) {
+		ByteBuffer buf = chunk(node);
+		int off = offset(node);
+
+		buf.putLong(off + KEY, key);
+		buf.putInt(off + INFINITE, infinite ? 1 : 0);
+		buf.putInt(off + LEFT, left);
+		buf.putInt(off + RIGHT, right);
+	}
+
+	/**
+	 * Compares a key with the key of a node, where sentinels are infinity.
+	 */
+	private int compare(long key, int node) {
+		return isInfinite(node) ? -1 : Long.compare(key, key(node));
+	}
+
+	/**
+	 * Returns the child of a node that the search for a key follows.
+	 */
+	private int child(int node, long key) {
+		return (compare(key, node) < 0) ? left(node) : right(node);
+	}
+
+	/*
+	 * Optimistic lock coupling.  A lock word holds a version in its upper bits
+	 * and the lock bit in its lowest bit.
+	 */
+
+	/**
+	 * Waits until the node isn't locked and returns its version.
+	 */
+	private int readVersion(int node) {
+		int version = (int)INT.getAcquire(chunk(node), offset(node) + LOCK);
+
+		while((version & 1) != 0) {
+			Thread.onSpinWait();
+			version = (int)INT.getAcquire(chunk(node), offset(node) + LOCK);
+		}
+		return version;
+	}
+
+	/**
+	 * Checks that the node hasn't been locked since its version was read, i.e.
+	 * that everything read from it in between is consistent.
+	 */
+	private boolean validate(int node, int version) {
+		VarHandle.acquireFence();
+		return (int)INT.getVolatile(chunk(node), offset(node) + LOCK) ==
+				version;
+	}
+
+	/**
+	 * Locks the node, but only if it hasn't changed since its version was
+	 * read.
+	 */
+	private boolean tryLock(int node, int version) {
+		return INT.compareAndSet(chunk(node), offset(node) + LOCK, version,
+				version + 1);
+	}
+
+	/**
+	 * Unlocks the node, publishing a new version.
+	 */
+	private void unlock(int node) {
+		ByteBuffer buf = chunk(node);
+		int off = offset(node) + LOCK;
+
+		INT.setRelease(buf, off, (int)INT.getVolatile(buf, off) + 1);
+	}
+
+	/*
+	 * Node allocation.  Free nodes are linked through their left field and the
+	 * head of the free list packs a stamp (upper 32 bits) with the index of
+	 * the first free node (lower 32 bits).
+	 */
+
+	/**
+	 * Allocates a node, reusing a freed node if there is one.
+	 * @return The index of the node
+	 * @throws IllegalStateException if the slab is full
+	 */
+	private int allocate() {
+
+		long head = 0;
+		int node = NULL;
+
+		while(true) {
+			head = freeList.get();
+			node = (int)head;
+			if(node == NULL)
+				break;
+			if(freeList.compareAndSet(head,
+					((head >>> 32) + 1) << 32 | (left(node) & 0xffffffffL)))
+				return node;
+		}
+
+		node = nextNode.getAndIncrement();
+		if(node >= maxNodes || node < 0) {
+			nextNode.set(maxNodes);
+			throw new IllegalStateException("OffHeapLongBinaryTree is full (" +
+					capacity() + " keys)");
+		}
+		return node;
+	}
+
+	/**
+	 * Pushes a node onto the free list.  The node must be unreachable.
+	 */
+	private void free(int node) {
+
+		long head = 0;
+
+		do {
+			head = freeList.get();
+			setLeft(node, (int)head);
+		} while(!freeList.compareAndSet(head,
+				(head & 0xffffffff00000000L) | node));
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(Long data) {
+		return insert(data.longValue());
+	}
+
+	/**
+	 * Inserts a new key into the tree.
+	 *
+	 * @param data The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 * @throws IllegalStateException if the tree is full
+	 */
+	public boolean insert(long data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Inserts a new key into the tree.  Finds the leaf where the key belongs
+	 * optimistically, then locks its parent and replaces the leaf with a new
+	 * internal node whose children are the leaf and a new leaf holding the
+	 * key.
+	 *
+	 * @param data The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 * @throws IllegalStateException if the tree is full
+	 */
+	private boolean insertLeaf(long data) {
+
+		int parentNode = NULL, curNode = NULL;
+		int parentVersion = 0, curVersion = 0;
+		int newLeaf = NULL, newInternal = NULL;
+		int compare = 0;
+		int attempts = 0, depth = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.INSERT_RETRY);
+			depth = 0;
+			parentNode = ROOT;
+			parentVersion = readVersion(parentNode);
+			curNode = child(parentNode, data);
+			curVersion = readVersion(curNode);
+			if(!validate(parentNode, parentVersion))
+				continue retry;
+			while(!isLeaf(curNode)) {
+				depth++;
+				parentNode = curNode;
+				parentVersion = curVersion;
+				curNode = child(parentNode, data);
+				curVersion = readVersion(curNode);
+				if(!validate(parentNode, parentVersion))
+					continue retry;
+			}
+			TreeMetrics.record(Histogram.TRAVERSAL_DEPTH, depth);
+			compare = compare(data, curNode);
+			if(!validate(curNode, curVersion))
+				continue retry;
+			if(compare == 0)
+				return false;
+
+			//Lock the parent.  The leaf can only be removed by a thread that
+			//locks the parent, so the leaf is stable once its version checks
+			//out.
+			if(!tryLock(parentNode, parentVersion))
+				continue retry;
+			if(!validate(curNode, curVersion)) {
+				unlock(parentNode);
+				continue retry;
+			}
+			try {
+				newLeaf = allocate();
+				newInternal = allocate();
+			} catch(IllegalStateException e) {
+				if(newLeaf != NULL)
+					free(newLeaf);
+				unlock(parentNode);
+				throw e;
+			}
+			initNode(newLeaf, data, false, NULL, NULL);
+			if(compare < 0)
+				initNode(newInternal, key(curNode), isInfinite(curNode),
+						newLeaf, curNode);
+			else
+				initNode(newInternal, data, false, curNode, newLeaf);
+			if(left(parentNode) == curNode)
+				setLeft(parentNode, newInternal);
+			else
+				setRight(parentNode, newInternal);
+			sizeCounter.increment();
+			unlock(parentNode);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data to remove from the tree
+	 * @return The data element that was removed, or null otherwise
+	 */
+	@Override
+	public Long remove(Long data) {
+		return remove(data.longValue()) ? data : null;
+	}
+
+	/**
+	 * Removes the specified key from the tree.
+	 *
+	 * @param data The key to remove from the tree
+	 * @return True if the key was removed, false if it wasn't in the tree
+	 */
+	public boolean remove(long data) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified key from the tree.  Finds the leaf optimistically,
+	 * then locks the grandparent, parent and leaf (top-down) and replaces the
+	 * parent with the leaf's sibling.  The parent and leaf are recycled.
+	 *
+	 * @param data The key to remove from the tree
+	 * @return True if the key was removed, false if it wasn't in the tree
+	 */
+	private boolean removeLeaf(long data) {
+
+		int gparentNode = NULL, parentNode = NULL, curNode = NULL;
+		int gparentVersion = 0, parentVersion = 0, curVersion = 0;
+		int sibling = NULL;
+		int compare = 0;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.REMOVE_RETRY);
+			gparentNode = NULL;
+			parentNode = ROOT;
+			parentVersion = readVersion(parentNode);
+			curNode = child(parentNode, data);
+			curVersion = readVersion(curNode);
+			if(!validate(parentNode, parentVersion))
+				continue retry;
+			while(!isLeaf(curNode)) {
+				gparentNode = parentNode;
+				gparentVersion = parentVersion;
+				parentNode = curNode;
+				parentVersion = curVersion;
+				curNode = child(parentNode, data);
+				curVersion = readVersion(curNode);
+				if(!validate(parentNode, parentVersion))
+					continue retry;
+			}
+			compare = compare(data, curNode);
+			if(!validate(curNode, curVersion))
+				continue retry;
+			if(compare != 0)
+				return false;
+
+			//Real leaves always have a grandparent thanks to the sentinels
+			if(!tryLock(gparentNode, gparentVersion))
+				continue retry;
+			if(!tryLock(parentNode, parentVersion)) {
+				unlock(gparentNode);
+				continue retry;
+			}
+			if(!tryLock(curNode, curVersion)) {
+				unlock(parentNode);
+				unlock(gparentNode);
+				continue retry;
+			}
+			sibling = (left(parentNode) == curNode) ? right(parentNode) :
+					left(parentNode);
+			if(left(gparentNode) == parentNode)
+				setLeft(gparentNode, sibling);
+			else
+				setRight(gparentNode, sibling);
+			sizeCounter.decrement();
+
+			//Unlocking bumps the versions of the unlinked nodes, so any search
+			//still looking at them will restart
+			unlock(curNode);
+			unlock(parentNode);
+			free(curNode);
+			free(parentNode);
+			unlock(gparentNode);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of keys in the tree in O(1) time.  Unless the tree
+	 * was created with exactSize, the result is an estimate which may not yet
+	 * reflect updates that are in progress.
+	 *
+	 * @return The number of keys in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+
+	/**
+	 * Checks to see if the specified data is in the tree.
+	 *
+	 * @param data The data being searched for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(Long data) {
+		return contains(data.longValue());
+	}
+
+	/**
+	 * Checks to see if the specified key is in the tree.  Takes no locks.
+	 *
+	 * @param data The key being searched for in the tree
+	 * @return True if the key is in the tree, false otherwise
+	 */
+	public boolean contains(long data) {
+
+		int parentNode = NULL, curNode = NULL;
+		int parentVersion = 0, curVersion = 0;
+		int compare = 0;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.VALIDATION_FAILURE);
+			parentNode = ROOT;
+			parentVersion = readVersion(parentNode);
+			curNode = child(parentNode, data);
+			curVersion = readVersion(curNode);
+			if(!validate(parentNode, parentVersion))
+				continue retry;
+			while(!isLeaf(curNode)) {
+				parentNode = curNode;
+				parentVersion = curVersion;
+				curNode = child(parentNode, data);
+				curVersion = readVersion(curNode);
+				if(!validate(parentNode, parentVersion))
+					continue retry;
+			}
+			compare = compare(data, curNode);
+			if(!validate(curNode, curVersion))
+				continue retry;
+			return compare == 0;
+		}
+	}
+}
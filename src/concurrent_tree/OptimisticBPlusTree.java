@@ -0,0 +1,394 @@
+package concurrent_tree;
+
+import concurrent_tree.TreeMetrics.Event;
+import concurrent_tree.TreeMetrics.Histogram;
+
+/**
+ * Optimistic B+ Tree
+ *
+ * This class implements a concurrent B+ tree with wide nodes, so that a search
+ * only visits a handful of levels instead of the 20 to 40 levels of the
+ * binary trees.  The keys are stored in the leaves; inner nodes hold sorted
+ * separators which route searches to their children.
+ *
+ * Concurrency is handled with optimistic lock coupling, as in "The ART of
+ * Practical Synchronization" by Leis et. al.  Every node has a versioned lock
+ * word (see BPlusNode).  Searches take no locks: they read a node's version,
+ * read the child to descend into, read the child's version and then validate
+ * the parent's version, restarting from the root if it changed.  Updates
+ * search the same way and then lock only the leaf they modify.  Full nodes are
+ * split eagerly on the way down, locking just the node and its parent, so a
+ * parent always has room for the separator of a split child and splits never
+ * propagate upwards.  Like Leis et. al.'s tree, underfull nodes are not
+ * merged; removes leave room in their leaves which later inserts reuse.
+ *
+ * Keys are stored as references, so comparing a key still loads the key
+ * object; the tree saves the dependent loads of the node pointers.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class OptimisticBPlusTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * The default maximum number of keys per node.
+	 */
+	public static final int DEFAULT_FANOUT = 32;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final int fanout;
+	volatile BPlusNode<T> root;
+	final SizeCounter sizeCounter;
+
+	/**
+	 * Instantiates an empty tree with the default fanout.
+	 */
+	public OptimisticBPlusTree() {
+		this(DEFAULT_FANOUT, false);
+	}
+
+	/**
+	 * Instantiates an empty tree.
+	 * @param fanout The maximum number of keys per node, at least 4
+	 */
+	public OptimisticBPlusTree(int fanout) {
+		this(fanout, false);
+	}
+
+	/**
+	 * Instantiates an empty tree.
+	 * @param fanout The maximum number of keys per node, at least 4
+	 * @param exactSize True if size() must be exact, which makes updates
+	 * slower, see SizeCounter
+	 */
+	public OptimisticBPlusTree(int fanout, boolean exactSize) {
+		if(fanout < 4)
+			throw new IllegalArgumentException("Invalid fanout " + fanout);
+		this.fanout = fanout;
+		root = new BPlusNode<T>(fanout, true);
+		sizeCounter = new SizeCounter(exactSize);
+	}
+
+	/**
+	 * Result of a search: the leaf where the key belongs and the version the
+	 * leaf had when it was reached.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class SearchResult<T> {
+		BPlusNode<T> leaf;
+		long version;
+	}
+
+	/**
+	 * Finds the position of a key in a node's keys with a binary search.  The
+	 * node may be changing underneath the search, so the result must be
+	 * validated against the node's version.
+	 *
+	 * @param keys The node's keys
+	 * @param count The number of keys read from the node
+	 * @param data The key to search for
+	 * @param upper True to return the index of the first key greater than
+	 * data, false for the first key greater than or equal to data
+	 * @return The index, or -1 if the node was seen in an inconsistent state
+	 */
+	@SuppressWarnings("unchecked")
+	private int search(Object[] keys, int count, T data, boolean upper) {
+
+		int lo = 0, hi = Math.min(count, keys.length), mid = 0, cmp = 0;
+		Object key = null;
+
+		while(lo < hi) {
+			mid = (lo + hi) >>> 1;
+			key = keys[mid];
+			if(key == null)
+				return -1;
+			cmp = data.compareTo((T)key);
+			if(cmp > 0 || (upper && cmp == 0))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Descends from the root to the leaf where a key belongs.  If splitFull is
+	 * set, the first full node on the way is split and the search fails, so
+	 * that an insert always reaches a leaf with room for its key.
+	 *
+	 * @param data The key to search for
+	 * @param result Receives the leaf and its version
+	 * @param splitFull True to split full nodes on the way down
+	 * @return True if the leaf was found, false if the search must restart
+	 */
+	private boolean findLeaf(T data, SearchResult<T> result,
+			boolean splitFull) {
+
+		BPlusNode<T> parentNode = null, curNode = root, child = null;
+		long parentVersion = 0, curVersion = curNode.readVersion();
+		int index = 0, depth = 0;
+
+		if(curNode != root)
+			return false;
+		while(true) {
+			if(splitFull && curNode.isFull()) {
+				split(parentNode, parentVersion, curNode, curVersion);
+				return false;
+			}
+			if(curNode.isLeaf())
+				break;
+
+			//Read the child, then check that the parent didn't change until
+			//the child's version was read
+			index = search(curNode.keys, curNode.count, data, true);
+			child = (index < 0) ? null : curNode.children[index];
+			if(child == null || !curNode.validate(curVersion))
+				return false;
+			parentVersion = curVersion;
+			curVersion = child.readVersion();
+			if(!curNode.validate(parentVersion))
+				return false;
+			parentNode = curNode;
+			curNode = child;
+			depth++;
+		}
+		TreeMetrics.record(Histogram.TRAVERSAL_DEPTH, depth);
+		result.leaf = curNode;
+		result.version = curVersion;
+		return true;
+	}
+
+	/**
+	 * Splits a full node in two, inserting the separator into its parent or,
+	 * if the node is the root, into a new root.  Does nothing if either node
+	 * changed since its version was read.
+	 *
+	 * @param parentNode The node's parent, or null if the node is the root
+	 * @param parentVersion The version read from the parent
+	 * @param curNode The node to split
+	 * @param curVersion The version read from the node
+	 */
+	private void split(BPlusNode<T> parentNode, long parentVersion,
+			BPlusNode<T> curNode, long curVersion) {
+
+		BPlusNode<T> sibling = null, newRoot = null;
+		Object separator = null;
+		int mid = 0, index = 0;
+
+		if(parentNode != null && !parentNode.tryLock(parentVersion))
+			return;
+		if(!curNode.tryLock(curVersion)) {
+			if(parentNode != null)
+				parentNode.unlock();
+			return;
+		}
+		if(parentNode == null && curNode != root) {
+			curNode.unlock();
+			return;
+		}
+
+		//Move the upper half into the sibling.  A leaf's separator is copied
+		//to its parent, an inner node's separator is moved there.
+		sibling = new BPlusNode<T>(fanout, curNode.isLeaf());
+		mid = curNode.count / 2;
+		if(curNode.isLeaf()) {
+			sibling.count = curNode.count - mid;
+			System.arraycopy(curNode.keys, mid, sibling.keys, 0, sibling.count);
+			separator = sibling.keys[0];
+		} else {
+			separator = curNode.keys[mid];
+			sibling.count = curNode.count - mid - 1;
+			System.arraycopy(curNode.keys, mid + 1, sibling.keys, 0,
+					sibling.count);
+			System.arraycopy(curNode.children, mid + 1, sibling.children, 0,
+					sibling.count + 1);
+			for(int i = mid + 1; i <= curNode.count; i++)
+				curNode.children[i] = null;
+		}
+		for(int i = mid; i < curNode.count; i++)
+			curNode.keys[i] = null;
+		curNode.count = mid;
+
+		if(parentNode == null) {
+			newRoot = new BPlusNode<T>(fanout, false);
+			newRoot.keys[0] = separator;
+			newRoot.children[0] = curNode;
+			newRoot.children[1] = sibling;
+			newRoot.count = 1;
+			root = newRoot;
+		} else {
+			//The parent isn't full, full nodes are split on the way down
+			index = 0;
+			while(parentNode.children[index] != curNode)
+				index++;
+			System.arraycopy(parentNode.keys, index, parentNode.keys,
+					index + 1, parentNode.count - index);
+			System.arraycopy(parentNode.children, index + 1,
+					parentNode.children, index + 2, parentNode.count - index);
+			parentNode.keys[index] = separator;
+			parentNode.children[index + 1] = sibling;
+			parentNode.count++;
+		}
+		curNode.unlock();
+		if(parentNode != null)
+			parentNode.unlock();
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertKey(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Inserts new data into its leaf.  The leaf is locked with the version it
+	 * had when it was reached; since a leaf's key range only changes when the
+	 * leaf itself is split, the leaf is still the right one if that succeeds.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean insertKey(T data) {
+
+		SearchResult<T> result = new SearchResult<T>();
+		BPlusNode<T> leaf = null;
+		Object key = null;
+		int index = 0, count = 0, attempts = 0;
+
+		while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.INSERT_RETRY);
+			if(!findLeaf(data, result, true))
+				continue;
+			leaf = result.leaf;
+			count = leaf.count;
+			index = search(leaf.keys, count, data, false);
+			key = (index < 0 || index >= count) ? null : leaf.keys[index];
+			if(index < 0 || !leaf.validate(result.version))
+				continue;
+			if(key != null && data.compareTo((T)key) == 0)
+				return false;
+			if(!leaf.tryLock(result.version))
+				continue;
+			System.arraycopy(leaf.keys, index, leaf.keys, index + 1,
+					count - index);
+			leaf.keys[index] = data;
+			leaf.count = count + 1;
+			sizeCounter.increment();
+			leaf.unlock();
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeKey(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified data from its leaf.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	private T removeKey(T data) {
+
+		SearchResult<T> result = new SearchResult<T>();
+		BPlusNode<T> leaf = null;
+		Object key = null;
+		int index = 0, count = 0, attempts = 0;
+
+		while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.REMOVE_RETRY);
+			if(!findLeaf(data, result, false))
+				continue;
+			leaf = result.leaf;
+			count = leaf.count;
+			index = search(leaf.keys, count, data, false);
+			key = (index < 0 || index >= count) ? null : leaf.keys[index];
+			if(index < 0 || !leaf.validate(result.version))
+				continue;
+			if(key == null || data.compareTo((T)key) != 0)
+				return null;
+			if(!leaf.tryLock(result.version))
+				continue;
+			System.arraycopy(leaf.keys, index + 1, leaf.keys, index,
+					count - index - 1);
+			leaf.keys[count - 1] = null;
+			leaf.count = count - 1;
+			sizeCounter.decrement();
+			leaf.unlock();
+			return (T)key;
+		}
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Takes no locks.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean contains(T data) {
+
+		SearchResult<T> result = new SearchResult<T>();
+		BPlusNode<T> leaf = null;
+		Object key = null;
+		int index = 0, count = 0, attempts = 0;
+
+		while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.VALIDATION_FAILURE);
+			if(!findLeaf(data, result, false))
+				continue;
+			leaf = result.leaf;
+			count = leaf.count;
+			index = search(leaf.keys, count, data, false);
+			key = (index < 0 || index >= count) ? null : leaf.keys[index];
+			if(index >= 0 && leaf.validate(result.version))
+				return key != null && data.compareTo((T)key) == 0;
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the tree.  Unless the tree was created
+	 * with exactSize set, this is an estimate while updates are in flight.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+}
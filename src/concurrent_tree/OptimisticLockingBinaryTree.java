@@ -0,0 +1,427 @@
+package concurrent_tree;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import concurrent_tree.TreeMetrics.Event;
+
+/**
+ * Optimistic Locking Binary Tree
+ *
+ * This class implements a concurrent binary tree using optimistic,
+ * version-validated traversals.  Where the FineGrainedLockingBinaryTree locks
+ * every node on the path hand-over-hand (serializing every operation, reads
+ * included, on the lock of its topmost node), this tree searches without
+ * taking any locks.  The fine-grained tree is kept as it is, as the
+ * hand-over-hand baseline this tree and the lock strategies are measured
+ * against.  Each node carries a version number that is bumped whenever the
+ * node changes; a traversal records a node's version, reads its key and child
+ * pointer and then checks that the version hasn't changed, restarting from the
+ * root if it has.  contains() never writes to shared memory, and insert/remove
+ * only lock the one or two nodes they actually modify, validating under the
+ * lock that the versions they read during their search are still current.
+ *
+ * To avoid having to move a replacement node into the place of a removed node
+ * with two children (which would invalidate concurrent searches for the
+ * replacement), such nodes are only logically removed: they are flagged as not
+ * present and left in the tree as routing nodes, in the same way as the
+ * partially external trees of Bronson et. al.  Nodes with fewer than two
+ * children are unlinked, and routing nodes are pruned once they drop below two
+ * children.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class OptimisticLockingBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * Local variables and definitions.  The holder is a permanent node whose
+	 * right child is the root of the tree, so the root is modified the same
+	 * way as any other child pointer.  It is never unlinked.
+	 */
+	OptimisticNode<T> holder;
+	final SizeCounter sizeCounter;
+
+	/**
+	 * Instantiates an empty optimistic locking binary tree for use.
+	 */
+	public OptimisticLockingBinaryTree() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates an empty optimistic locking binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, which makes every update more expensive (see
+	 * SizeCounter)
+	 */
+	public OptimisticLockingBinaryTree(boolean exactSize) {
+		holder = new OptimisticNode<T>(null);
+		holder.present = false;
+		sizeCounter = new SizeCounter(exactSize);
+	}
+
+	/**
+	 * Compares data to the key of a node.  The holder's key is treated as
+	 * smaller than any data, so that everything is stored to its right.
+	 *
+	 * @param node The node being compared against
+	 * @param data The data being searched for
+	 * @return A negative number, zero or a positive number if the node's key
+	 * is smaller than, equal to or bigger than data
+	 */
+	private int compare(OptimisticNode<T> node, T data) {
+		if(node == holder)
+			return -1;
+		return node.data.compareTo(data);
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertNode(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Inserts new data into the tree.  Searches for the data optimistically,
+	 * then locks only the node being modified: either the routing node that
+	 * already holds the data, or the parent of the empty subtree where the new
+	 * node belongs.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	private boolean insertNode(T data) {
+
+		OptimisticNode<T> curNode = null;
+		OptimisticNode<T> nextNode = null;
+		long version = 0;
+		int compare = 0;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.INSERT_RETRY);
+			curNode = holder;
+			while(true) {
+				version = curNode.version;
+				if(OptimisticNode.isUnlinked(version))
+					continue retry;
+				compare = compare(curNode, data);
+				if(compare == 0)
+					break;
+				nextNode = (compare > 0) ? curNode.left : curNode.right;
+				if(curNode.version != version)
+					continue retry;
+				if(nextNode == null)
+					break;
+				curNode = nextNode;
+			}
+
+			//Lock the node we are modifying and validate it didn't change
+			curNode.lock();
+			try {
+				if(curNode.version != version)
+					continue retry;
+				if(compare == 0) {
+					//The data is already in the tree, possibly as a routing
+					//node which we can simply mark present again
+					if(curNode.present)
+						return false;
+					curNode.present = true;
+				} else if(compare > 0) {
+					//curNode is "bigger" than the data, link in as left child
+					curNode.left = new OptimisticNode<T>(data);
+				} else {
+					//curNode is "smaller" than the data, link in as right child
+					curNode.right = new OptimisticNode<T>(data);
+				}
+				sizeCounter.increment();
+				curNode.changed();
+				return true;
+			} finally {
+				curNode.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeNode(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.  Searches for the data
+	 * optimistically, then locks the node holding the data and its parent.
+	 * Nodes with two children are turned into routing nodes; other nodes are
+	 * unlinked from their parent.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	private T removeNode(T data) {
+
+		OptimisticNode<T> curNode = null;
+		OptimisticNode<T> parentNode = null;
+		OptimisticNode<T> gparentNode = null;
+		OptimisticNode<T> nextNode = null;
+		OptimisticNode<T> child = null;
+		long version = 0;
+		int compare = 0;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.REMOVE_RETRY);
+			gparentNode = null;
+			parentNode = null;
+			curNode = holder;
+			while(true) {
+				version = curNode.version;
+				if(OptimisticNode.isUnlinked(version))
+					continue retry;
+				compare = compare(curNode, data);
+				if(compare == 0)
+					break;
+				nextNode = (compare > 0) ? curNode.left : curNode.right;
+				if(curNode.version != version)
+					continue retry;
+				if(nextNode == null) {
+					//The data is not in the tree
+					return null;
+				}
+				gparentNode = parentNode;
+				parentNode = curNode;
+				curNode = nextNode;
+			}
+			if(!curNode.present) {
+				//Only a routing node, the data is not in the tree
+				if(curNode.version != version)
+					continue retry;
+				return null;
+			}
+
+			//Lock the parent and then the node, top-down, and validate
+			parentNode.lock();
+			try {
+				if(OptimisticNode.isUnlinked(parentNode.version) ||
+						(parentNode.left != curNode &&
+						parentNode.right != curNode))
+					continue retry;
+				curNode.lock();
+				try {
+					if(curNode.version != version || !curNode.present)
+						continue retry;
+					curNode.present = false;
+					sizeCounter.decrement();
+					if(curNode.left != null && curNode.right != null) {
+						//Two children, leave it in the tree as a routing node
+						curNode.changed();
+						return curNode.data;
+					}
+
+					//Splice curNode out of the tree
+					child = (curNode.left != null) ? curNode.left :
+							curNode.right;
+					if(parentNode.left == curNode)
+						parentNode.left = child;
+					else
+						parentNode.right = child;
+					curNode.unlinked();
+					parentNode.changed();
+				} finally {
+					curNode.unlock();
+				}
+			} finally {
+				parentNode.unlock();
+			}
+
+			//If the parent is a routing node which just lost a child, try to
+			//prune it as well
+			if(gparentNode != null && !parentNode.present)
+				prune(gparentNode, parentNode);
+			return curNode.data;
+		}
+	}
+
+	/**
+	 * Unlinks a routing node if it has less than two children.  This is a
+	 * best-effort cleanup; if either node changed concurrently the routing
+	 * node is simply left in the tree.
+	 *
+	 * @param parentNode The parent of the routing node
+	 * @param curNode The routing node
+	 */
+	private void prune(OptimisticNode<T> parentNode,
+			OptimisticNode<T> curNode) {
+
+		OptimisticNode<T> child = null;
+
+		parentNode.lock();
+		try {
+			if(OptimisticNode.isUnlinked(parentNode.version) ||
+					(parentNode.left != curNode && parentNode.right != curNode))
+				return;
+			curNode.lock();
+			try {
+				if(OptimisticNode.isUnlinked(curNode.version) ||
+						curNode.present ||
+						(curNode.left != null && curNode.right != null))
+					return;
+				child = (curNode.left != null) ? curNode.left : curNode.right;
+				if(parentNode.left == curNode)
+					parentNode.left = child;
+				else
+					parentNode.right = child;
+				curNode.unlinked();
+				parentNode.changed();
+			} finally {
+				curNode.unlock();
+			}
+		} finally {
+			parentNode.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the tree in O(1) time.  Unless the
+	 * tree was created with exactSize, the result is an estimate which may
+	 * not yet reflect updates that are in progress.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Takes no locks and doesn't
+	 * write to any shared memory, so concurrent readers never contend.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+
+		OptimisticNode<T> curNode = null;
+		OptimisticNode<T> nextNode = null;
+		long version = 0;
+		int compare = 0;
+		boolean present = false;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.VALIDATION_FAILURE);
+			curNode = holder;
+			while(true) {
+				version = curNode.version;
+				if(OptimisticNode.isUnlinked(version))
+					continue retry;
+				compare = compare(curNode, data);
+				if(compare == 0) {
+					//Found the data, make sure it isn't just a routing node
+					present = curNode.present;
+					if(curNode.version != version)
+						continue retry;
+					return present;
+				}
+				nextNode = (compare > 0) ? curNode.left : curNode.right;
+				if(curNode.version != version)
+					continue retry;
+				if(nextNode == null)
+					return false;
+				curNode = nextNode;
+			}
+		}
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out the data of each
+	 * node that is present in the tree.
+	 */
+	public void printTree() {
+		printTree(holder.right);
+	}
+
+	/**
+	 * Private method to perform a depth-first search of the tree and print
+	 * every present node's data.
+	 *
+	 * @param curNode The current node being printed.
+	 */
+	private void printTree(OptimisticNode<T> curNode) {
+
+		//Check to make sure curNode isn't null
+		if(curNode == null)
+			return;
+
+		//Print the left subtree
+		printTree(curNode.left);
+
+		//Print the current node, skipping routing nodes
+		if(curNode.present)
+			System.out.println(curNode.data.toString());
+
+		//Print the right subtree
+		printTree(curNode.right);
+	}
+
+	/**
+	 * Driver program to test the optimistic locking binary tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		OptimisticLockingBinaryTree<Integer> tree =
+				new OptimisticLockingBinaryTree<Integer>();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+	}
+}
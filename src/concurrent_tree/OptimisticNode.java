@@ -0,0 +1,88 @@
+package concurrent_tree;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OptimisticNode Class
+ *
+ * Implementation of a node to be used in conjunction with the
+ * OptimisticLockingBinaryTree class.  Besides the lock used by updates, each
+ * node carries a version number which is bumped (while holding the lock)
+ * every time the node's children or presence flag change, and which gets the
+ * UNLINKED bit set once the node has been removed from the tree.  Readers
+ * record the version before reading a node and validate it afterwards instead
+ * of locking the node.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The generic data type being wrapped by the OptimisticNode class
+ */
+public class OptimisticNode<T> {
+
+	/**
+	 * Version bit which is set once the node is no longer in the tree, and the
+	 * amount the version is incremented by on every other change.
+	 */
+	public static final long UNLINKED = 1;
+	public static final long CHANGED = 2;
+
+	public final T data;
+	public final ReentrantLock lock;
+	public volatile boolean present;
+	public volatile long version;
+	public volatile OptimisticNode<T> left;
+	public volatile OptimisticNode<T> right;
+
+	/**
+	 * Instantiates an OptimisticNode object.  Stores a reference to the data,
+	 * instantiates the lock and marks the data as present in the tree.
+	 * @param data The data object wrapped by the new OptimisticNode
+	 */
+	public OptimisticNode(T data) {
+		this.data = data;
+		lock = new ReentrantLock();
+		present = true;
+		version = 0;
+		left = null;
+		right = null;
+	}
+
+	/**
+	 * Returns whether or not the passed version belongs to a node that has
+	 * been removed from the tree.
+	 * @param version The version read from a node
+	 * @return True if the node was unlinked, false otherwise
+	 */
+	public static boolean isUnlinked(long version) {
+		return (version & UNLINKED) != 0;
+	}
+
+	/**
+	 * Records a change to the node.  Must be called while holding the lock.
+	 */
+	public void changed() {
+		version += CHANGED;
+	}
+
+	/**
+	 * Records that the node was removed from the tree.  Must be called while
+	 * holding the lock.
+	 */
+	public void unlinked() {
+		version = (version + CHANGED) | UNLINKED;
+	}
+
+	/**
+	 * Convenience method to lock the OptimisticNode's lock.
+	 */
+	public void lock() {
+		TreeMetrics.lock(lock);
+	}
+
+	/**
+	 * Convenience method to unlock the OptimisticNode's lock.
+	 */
+	public void unlock() {
+		lock.unlock();
+	}
+}
@@ -0,0 +1,129 @@
+package concurrent_tree;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parking Lot
+ *
+ * Shared queues of threads waiting on inline lock words, in the style of
+ * WebKit's ParkingLot and Linux futexes.  Objects with an inline lock don't
+ * carry a wait queue of their own; a thread that has to block parks on the
+ * lock's owner object here, and the unlocking thread unparks it.  Waiters are
+ * hashed into a fixed number of buckets by the identity of the object they
+ * wait on, so the parking lot costs nothing until a lock is contended.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class ParkingLot {
+
+	/**
+	 * Number of buckets.  Must be a power of two.
+	 */
+	private static final int BUCKETS = 256;
+
+	/**
+	 * A parked thread and the object it waits on.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class Waiter {
+		final Object key;
+		final Thread thread;
+		volatile boolean unparked;
+		Waiter next;
+
+		Waiter(Object key) {
+			this.key = key;
+			thread = Thread.currentThread();
+			unparked = false;
+		}
+	}
+
+	/**
+	 * A FIFO queue of waiters, guarded by the bucket's monitor.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class Bucket {
+		Waiter head;
+		Waiter tail;
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	private static final Bucket[] buckets;
+	static {
+		buckets = new Bucket[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++)
+			buckets[i] = new Bucket();
+	}
+
+	private ParkingLot() {
+	}
+
+	private static Bucket bucket(Object key) {
+		int hash = System.identityHashCode(key);
+		return buckets[(hash ^ (hash >>> 16)) & (BUCKETS - 1)];
+	}
+
+	/**
+	 * Parks the calling thread on an object, but only if validate still
+	 * returns true once the thread has been queued.  Checking the lock word
+	 * while holding the bucket's monitor means that an unlock either happens
+	 * before the check, which then fails, or finds the thread in the queue.
+	 * Returns once the thread has been unparked.
+	 *
+	 * @param key The object to wait on
+	 * @param validate Checks that the thread still needs to wait
+	 */
+	static void park(Object key, BooleanSupplier validate) {
+
+		Bucket bucket = bucket(key);
+		Waiter waiter = null;
+
+		synchronized(bucket) {
+			if(!validate.getAsBoolean())
+				return;
+			waiter = new Waiter(key);
+			if(bucket.tail == null)
+				bucket.head = waiter;
+			else
+				bucket.tail.next = waiter;
+			bucket.tail = waiter;
+		}
+		while(!waiter.unparked)
+			LockSupport.park(key);
+	}
+
+	/**
+	 * Unparks the thread which has been waiting on an object the longest, if
+	 * there is one.
+	 *
+	 * @param key The object to unpark a waiter of
+	 */
+	static void unparkOne(Object key) {
+
+		Bucket bucket = bucket(key);
+		Waiter waiter = null, prev = null;
+
+		synchronized(bucket) {
+			for(waiter = bucket.head; waiter != null; waiter = waiter.next) {
+				if(waiter.key == key)
+					break;
+				prev = waiter;
+			}
+			if(waiter == null)
+				return;
+			if(prev == null)
+				bucket.head = waiter.next;
+			else
+				prev.next = waiter.next;
+			if(bucket.tail == waiter)
+				bucket.tail = prev;
+		}
+		waiter.unparked = true;
+		LockSupport.unpark(waiter.thread);
+	}
+}
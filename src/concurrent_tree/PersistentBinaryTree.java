@@ -0,0 +1,500 @@
+package concurrent_tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Persistent Binary Tree
+ *
+ * This class implements a copy-on-write binary tree for read-mostly data.
+ * Nodes are immutable; an update copies the nodes on the path from the root
+ * to the change, leaving the rest of the tree shared with the previous
+ * version, and publishes the new version with a single compare-and-set on the
+ * root.  If another update was published in the meantime, the update is
+ * applied again to the newer version.  Readers only read the current version
+ * once, so lookups, iterators and streams take no locks, never retry and
+ * always see one consistent version of the tree.
+ *
+ * Each update allocates a copy of its search path, and concurrent updates
+ * serialize on the root, so the tree suits workloads dominated by reads.
+ * Several updates can be published at once through a Batch, and snapshot()
+ * returns an independent copy of the tree in constant time.  Like the other
+ * trees, the tree doesn't rebalance.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class PersistentBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T>, Iterable<T> {
+
+	/**
+	 * A version of the tree: its root and the number of elements in it.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class Version<T> {
+
+		final PersistentNode<T> root;
+		final int size;
+
+		Version(PersistentNode<T> root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final AtomicReference<Version<T>> current;
+
+	/**
+	 * Instantiates an empty persistent binary tree for use.
+	 */
+	public PersistentBinaryTree() {
+		current = new AtomicReference<Version<T>>(new Version<T>(null, 0));
+	}
+
+	/**
+	 * Instantiates a tree starting at an existing version.
+	 * @param version The initial version
+	 */
+	private PersistentBinaryTree(Version<T> version) {
+		current = new AtomicReference<Version<T>>(version);
+	}
+
+	/**
+	 * Search path of an update: the nodes from the root down to the node being
+	 * changed, the direction taken at each of them, and the data of the node
+	 * removed by the update, if any.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static final class Path<T> {
+
+		PersistentNode<T>[] nodes;
+		boolean[] wentRight;
+		int depth;
+		T removed;
+
+		@SuppressWarnings("unchecked")
+		Path() {
+			nodes = (PersistentNode<T>[])new PersistentNode<?>[32];
+			wentRight = new boolean[32];
+			depth = 0;
+		}
+
+		void push(PersistentNode<T> node, boolean right) {
+			if(depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				wentRight = Arrays.copyOf(wentRight, depth * 2);
+			}
+			nodes[depth] = node;
+			wentRight[depth++] = right;
+		}
+
+		/**
+		 * Copies the nodes on the path, from the bottom up, replacing the
+		 * child the path went through with the copy below it.
+		 *
+		 * @param subRoot The new subtree at the bottom of the path
+		 * @return The new root
+		 */
+		PersistentNode<T> copy(PersistentNode<T> subRoot) {
+			for(int i = depth - 1; i >= 0; i--)
+				subRoot = wentRight[i] ? nodes[i].withRight(subRoot) :
+					nodes[i].withLeft(subRoot);
+			return subRoot;
+		}
+	}
+
+	/**
+	 * Creates the version resulting from inserting data into a version.
+	 *
+	 * @param version The version to insert into
+	 * @param data The data to insert
+	 * @param path Scratch space for the search path
+	 * @return The new version, or the passed version if data is already in it
+	 */
+	private Version<T> withInsert(Version<T> version, T data, Path<T> path) {
+
+		PersistentNode<T> curNode = version.root;
+		int cmp = 0;
+
+		path.depth = 0;
+		while(curNode != null) {
+			cmp = data.compareTo(curNode.data);
+			if(cmp == 0)
+				return version;
+			path.push(curNode, cmp > 0);
+			curNode = (cmp > 0) ? curNode.right : curNode.left;
+		}
+		return new Version<T>(path.copy(new PersistentNode<T>(data, null,
+				null)), version.size + 1);
+	}
+
+	/**
+	 * Creates the version resulting from removing data from a version.  If
+	 * the removed node has two children, it is replaced by its successor.
+	 *
+	 * @param version The version to remove from
+	 * @param data The data to remove
+	 * @param path Scratch space for the search path
+	 * @return The new version, or the passed version if data is not in it
+	 */
+	private Version<T> withRemove(Version<T> version, T data, Path<T> path) {
+
+		PersistentNode<T> curNode = version.root, replacement = null;
+		int cmp = 0;
+
+		path.depth = 0;
+		while(curNode != null && (cmp = data.compareTo(curNode.data)) != 0) {
+			path.push(curNode, cmp > 0);
+			curNode = (cmp > 0) ? curNode.right : curNode.left;
+		}
+		if(curNode == null)
+			return version;
+
+		path.removed = curNode.data;
+		if(curNode.left == null)
+			replacement = curNode.right;
+		else if(curNode.right == null)
+			replacement = curNode.left;
+		else
+			replacement = replaceWithSuccessor(curNode);
+		return new Version<T>(path.copy(replacement), version.size - 1);
+	}
+
+	/**
+	 * Creates a copy of a node with two children in which the node's data is
+	 * replaced by its successor, and the successor is removed from the right
+	 * subtree.
+	 *
+	 * @param target The node to replace
+	 * @return The replacement subtree
+	 */
+	private PersistentNode<T> replaceWithSuccessor(PersistentNode<T> target) {
+
+		Path<T> spine = new Path<T>();
+		PersistentNode<T> successor = target.right;
+
+		while(successor.left != null) {
+			spine.push(successor, false);
+			successor = successor.left;
+		}
+		return new PersistentNode<T>(successor.data, target.left,
+				spine.copy(successor.right));
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+
+		Path<T> path = new Path<T>();
+		Version<T> version = null, updated = null;
+
+		do {
+			version = current.get();
+			updated = withInsert(version, data, path);
+			if(updated == version)
+				return false;
+		} while(!current.compareAndSet(version, updated));
+		return true;
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+
+		Path<T> path = new Path<T>();
+		Version<T> version = null, updated = null;
+
+		do {
+			version = current.get();
+			updated = withRemove(version, data, path);
+			if(updated == version)
+				return null;
+		} while(!current.compareAndSet(version, updated));
+		return path.removed;
+	}
+
+	/**
+	 * Searches the current version of the tree for the specified data.  Takes
+	 * no locks and never retries.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+
+		PersistentNode<T> curNode = current.get().root;
+		int cmp = 0;
+
+		while(curNode != null) {
+			cmp = data.compareTo(curNode.data);
+			if(cmp == 0)
+				return true;
+			curNode = (cmp > 0) ? curNode.right : curNode.left;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of elements in the current version of the tree.  The
+	 * count is stored with each version, so it is always exact.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return current.get().size;
+	}
+
+	/**
+	 * Returns an independent copy of the tree in constant time.  The copy
+	 * shares every node with the current version; updates to either tree are
+	 * not visible in the other.
+	 *
+	 * @return The copy
+	 */
+	public PersistentBinaryTree<T> snapshot() {
+		return new PersistentBinaryTree<T>(current.get());
+	}
+
+	/**
+	 * Returns a new batch of updates, which are published together.
+	 * @return The batch
+	 */
+	public Batch batch() {
+		return new Batch();
+	}
+
+	/**
+	 * A batch of inserts and removes which are published as a single version,
+	 * so that readers see either none or all of them and the root is only
+	 * compare-and-set once.  Updates are recorded by insert() and remove() and
+	 * applied, in order, by commit().  A batch is meant to be used by one
+	 * thread.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	public class Batch {
+
+		final List<T> keys;
+		final BitSet removes;
+
+		Batch() {
+			keys = new ArrayList<T>();
+			removes = new BitSet();
+		}
+
+		/**
+		 * Records an insert.
+		 * @param data The data to insert
+		 * @return This batch
+		 */
+		public Batch insert(T data) {
+			keys.add(data);
+			return this;
+		}
+
+		/**
+		 * Records a remove.
+		 * @param data The data to remove
+		 * @return This batch
+		 */
+		public Batch remove(T data) {
+			removes.set(keys.size());
+			keys.add(data);
+			return this;
+		}
+
+		/**
+		 * Applies the recorded updates to the current version of the tree and
+		 * publishes the result.  If another update is published first, the
+		 * updates are applied again to the newer version.  The batch is empty
+		 * afterwards and can be reused.
+		 *
+		 * @return The number of updates which changed the tree
+		 */
+		public int commit() {
+
+			Path<T> path = new Path<T>();
+			Version<T> version = null, updated = null, next = null;
+			int changes = 0;
+
+			do {
+				version = current.get();
+				updated = version;
+				changes = 0;
+				for(int i = 0; i < keys.size(); i++) {
+					next = removes.get(i) ?
+						withRemove(updated, keys.get(i), path) :
+						withInsert(updated, keys.get(i), path);
+					if(next != updated)
+						changes++;
+					updated = next;
+				}
+			} while(updated != version &&
+					!current.compareAndSet(version, updated));
+			keys.clear();
+			removes.clear();
+			return changes;
+		}
+	}
+
+	/**
+	 * Searches a version for a data element strictly inside the range (lo,
+	 * hi), preferring the one closest to the root.
+	 *
+	 * @param root The root of the version
+	 * @param lo The exclusive lower bound, or null if unbounded
+	 * @param hi The exclusive upper bound, or null if unbounded
+	 * @return A data element inside the range, or null if there is none
+	 */
+	private T splitKey(PersistentNode<T> root, T lo, T hi) {
+
+		PersistentNode<T> curNode = root;
+
+		while(curNode != null) {
+			if(lo != null && curNode.data.compareTo(lo) <= 0)
+				curNode = curNode.right;
+			else if(hi != null && curNode.data.compareTo(hi) >= 0)
+				curNode = curNode.left;
+			else
+				return curNode.data;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an iterator over every element in the current version of the
+	 * tree, in ascending order.  Later updates are not visible to the
+	 * iterator.  The iterator does not support remove().
+	 *
+	 * @return An iterator over the elements of the tree
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new RangeIterator(current.get().root, null, null);
+	}
+
+	/**
+	 * Returns a spliterator over every element in the current version of the
+	 * tree, in ascending order.  Every split reads the same version, so the
+	 * elements are exactly those of the version the spliterator was created
+	 * from.
+	 *
+	 * @return A spliterator over the elements of the tree
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+
+		Version<T> version = current.get();
+
+		return new RangeSpliterator<T>(
+				(lo, hi) -> splitKey(version.root, lo, hi),
+				(lo, hi) -> new RangeIterator(version.root, lo, hi),
+				null, null, version.size);
+	}
+
+	/**
+	 * Returns a sequential stream of the elements in the current version of
+	 * the tree, in ascending order.
+	 *
+	 * @return A stream over the elements of the tree
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel stream of the elements in the current version of the
+	 * tree, in ascending order.
+	 *
+	 * @return A parallel stream over the elements of the tree
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * In-order iterator over the elements of a version in the range [lo, hi).
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private class RangeIterator implements Iterator<T> {
+
+		ArrayDeque<PersistentNode<T>> stack;
+		T lo;
+		T hi;
+
+		/**
+		 * Creates an iterator over the range [lo, hi) of a version.
+		 *
+		 * @param root The root of the version
+		 * @param lo The inclusive lower bound, or null if unbounded
+		 * @param hi The exclusive upper bound, or null if unbounded
+		 */
+		public RangeIterator(PersistentNode<T> root, T lo, T hi) {
+			this.lo = lo;
+			this.hi = hi;
+			stack = new ArrayDeque<PersistentNode<T>>();
+			pushLeft(root);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+
+		@Override
+		public T next() {
+
+			PersistentNode<T> curNode = stack.poll();
+
+			if(curNode == null)
+				throw new NoSuchElementException();
+			pushLeft(curNode.right);
+			return curNode.data;
+		}
+
+		/**
+		 * Pushes the nodes in range along the left spine of a subtree.
+		 */
+		private void pushLeft(PersistentNode<T> curNode) {
+			while(curNode != null) {
+				if(lo != null && curNode.data.compareTo(lo) < 0) {
+					curNode = curNode.right;
+				} else if(hi != null && curNode.data.compareTo(hi) >= 0) {
+					curNode = curNode.left;
+				} else {
+					stack.push(curNode);
+					curNode = curNode.left;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package concurrent_tree;
+
+/**
+ * PersistentNode Class
+ *
+ * Implementation of an immutable node to be used in conjunction with the
+ * PersistentBinaryTree class.  Nodes are never modified once they have been
+ * published; updates create copies of the nodes on the path to the change, so
+ * a node can be shared by any number of versions of the tree.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The generic data type being wrapped by the PersistentNode class
+ */
+public final class PersistentNode<T> {
+
+	public final T data;
+	public final PersistentNode<T> left;
+	public final PersistentNode<T> right;
+
+	/**
+	 * Instantiates a PersistentNode object.
+	 * @param data The data object wrapped by the new PersistentNode
+	 * @param left The left child, or null
+	 * @param right The right child, or null
+	 */
+	public PersistentNode(T data, PersistentNode<T> left,
+			PersistentNode<T> right) {
+		this.data = data;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Returns a copy of this node with a different left child.
+	 * @param newLeft The new left child
+	 * @return The copy
+	 */
+	public PersistentNode<T> withLeft(PersistentNode<T> newLeft) {
+		return new PersistentNode<T>(data, newLeft, right);
+	}
+
+	/**
+	 * Returns a copy of this node with a different right child.
+	 * @param newRight The new right child
+	 * @return The copy
+	 */
+	public PersistentNode<T> withRight(PersistentNode<T> newRight) {
+		return new PersistentNode<T>(data, left, newRight);
+	}
+}
@@ -0,0 +1,82 @@
+package concurrent_tree;
+
+/**
+ * Queue Node
+ *
+ * Entry of the queue of threads waiting for a CLHLock or an MCSLock.  Queue
+ * locks need a node for every acquisition, and since hand-over-hand locking
+ * holds several locks at once a thread can't get by with a single node as in
+ * the textbook versions.  Instead, each thread keeps a free list of nodes
+ * that it takes one from for every acquisition and returns nodes to once they
+ * are no longer referenced by any lock, so nodes are only allocated until
+ * every thread has as many as it holds locks at once.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class QueueNode {
+
+	/**
+	 * Number of times a waiting thread spins before it starts yielding its
+	 * processor, so that the threads holding the lock or ahead of it in the
+	 * queue can run when there are more threads than processors.
+	 */
+	static final int SPINS = 256;
+
+	/**
+	 * Each thread's free list, in a one-element array so that it can be
+	 * updated without a second ThreadLocal lookup.
+	 */
+	private static final ThreadLocal<QueueNode[]> freeList =
+			ThreadLocal.withInitial(() -> new QueueNode[1]);
+
+	/**
+	 * Local variables and definitions.
+	 */
+	volatile boolean locked;
+	volatile QueueNode next;
+	QueueNode nextFree;
+
+	/**
+	 * Takes a node from the calling thread's free list, or allocates one if
+	 * the list is empty.
+	 *
+	 * @return The node
+	 */
+	static QueueNode take() {
+
+		QueueNode[] head = freeList.get();
+		QueueNode node = head[0];
+
+		if(node == null)
+			return new QueueNode();
+		head[0] = node.nextFree;
+		node.nextFree = null;
+		return node;
+	}
+
+	/**
+	 * Returns a node to the calling thread's free list.  No lock or thread
+	 * may reference the node anymore.
+	 *
+	 * @param node The node
+	 */
+	static void recycle(QueueNode node) {
+
+		QueueNode[] head = freeList.get();
+
+		node.nextFree = head[0];
+		head[0] = node;
+	}
+
+	/**
+	 * Waits for a short while before a waiting thread checks its lock again.
+	 *
+	 * @param spins The number of times the thread has already waited
+	 */
+	static void pause(int spins) {
+		if(spins < SPINS)
+			Thread.onSpinWait();
+		else
+			Thread.yield();
+	}
+}
@@ -0,0 +1,129 @@
+package concurrent_tree;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Range Spliterator
+ *
+ * Spliterator over the elements of a tree in the key range [lo, hi), shared by
+ * the tree implementations.  Splitting asks the tree for a key strictly inside
+ * the range; the trees pick the key of the highest node inside the range, so
+ * the range is split along the left and right subtrees of that node and each
+ * half can be scanned by a different fork/join worker.  Only keys are
+ * remembered between calls, never nodes, so the spliterator is safe to use
+ * with trees that are being modified concurrently; it has the same weakly
+ * consistent guarantees as the tree's range iterator, which is used to
+ * traverse the range once splitting stops.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The generic data type stored by the tree
+ */
+final class RangeSpliterator<T extends Comparable<? super T>>
+		implements Spliterator<T> {
+
+	/**
+	 * Characteristics of every tree spliterator.
+	 */
+	static final int CHARACTERISTICS = Spliterator.ORDERED |
+			Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final BinaryOperator<T> splitter;
+	final BiFunction<T, T, Iterator<T>> ranges;
+	T lo;
+	final T hi;
+	long estimate;
+	Iterator<T> iterator;
+
+	/**
+	 * Creates a spliterator over the range [lo, hi).
+	 *
+	 * @param splitter Returns a key strictly inside the range (lo, hi), or
+	 * null if there is none; null bounds are unbounded
+	 * @param ranges Returns an iterator over the range [lo, hi), in ascending
+	 * order
+	 * @param lo The inclusive lower bound, or null if unbounded
+	 * @param hi The exclusive upper bound, or null if unbounded
+	 * @param estimate Estimated number of elements in the range, or
+	 * Long.MAX_VALUE if unknown
+	 */
+	RangeSpliterator(BinaryOperator<T> splitter,
+			BiFunction<T, T, Iterator<T>> ranges, T lo, T hi, long estimate) {
+		this.splitter = splitter;
+		this.ranges = ranges;
+		this.lo = lo;
+		this.hi = hi;
+		this.estimate = estimate;
+		iterator = null;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if(iterator == null)
+			iterator = ranges.apply(lo, hi);
+		if(!iterator.hasNext())
+			return false;
+		action.accept(iterator.next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		if(iterator == null)
+			iterator = ranges.apply(lo, hi);
+		iterator.forEachRemaining(action);
+	}
+
+	/**
+	 * Splits off the lower part of the range, [lo, key), leaving this
+	 * spliterator with [key, hi).  Ranges that have started being traversed
+	 * are not split.
+	 */
+	@Override
+	public Spliterator<T> trySplit() {
+
+		T key = null;
+		long prefixEstimate = 0;
+
+		if(iterator != null)
+			return null;
+		key = splitter.apply(lo, hi);
+		if(key == null)
+			return null;
+		prefixEstimate = estimate >>> 1;
+		if(estimate != Long.MAX_VALUE)
+			estimate -= prefixEstimate;
+		else
+			prefixEstimate = Long.MAX_VALUE;
+		RangeSpliterator<T> prefix = new RangeSpliterator<T>(splitter, ranges,
+				lo, key, prefixEstimate);
+		lo = key;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return estimate;
+	}
+
+	@Override
+	public int characteristics() {
+		return CHARACTERISTICS;
+	}
+
+	/**
+	 * The elements are sorted in their natural order.
+	 */
+	@Override
+	public Comparator<? super T> getComparator() {
+		return null;
+	}
+}
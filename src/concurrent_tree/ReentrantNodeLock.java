@@ -0,0 +1,29 @@
+package concurrent_tree;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reentrant Node Lock
+ *
+ * A ReentrantLock usable as a NodeLock, recording the same metrics as
+ * TreeMetrics.lock().  Threads waiting for it park.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class ReentrantNodeLock extends ReentrantLock implements NodeLock {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public void lock() {
+		if(!TreeMetrics.ENABLED) {
+			super.lock();
+		} else if(tryLock()) {
+			TreeMetrics.count(TreeMetrics.Event.LOCK_ACQUIRED);
+		} else {
+			long start = System.nanoTime();
+			super.lock();
+			TreeMetrics.lockContended(start);
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package concurrent_tree;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+import concurrent_tree.TreeMetrics.Event;
+
+/**
+ * Relaxed-Balance Binary Tree
+ *
+ * This class implements a concurrent, self-balancing binary tree.  The other
+ * trees in this project never rebalance, so monotonically increasing keys turn
+ * them into linked lists; this tree keeps its height logarithmic by performing
+ * AVL-style rotations.  The balancing is "relaxed": updates only change the
+ * tree locally and release their locks, and the updating thread then walks
+ * back up its search path fixing heights and rotating wherever the AVL balance
+ * condition is violated.  Rebalancing is therefore kept off of the critical
+ * path of the update, and concurrent updates may briefly leave the tree out of
+ * balance until the fix-ups catch up.
+ *
+ * The tree is leaf-oriented (all data is stored in the leaves) so that removal
+ * never has to move a replacement node.  Searches take no locks at all.
+ * Updates lock only the nodes whose child pointers they change, validating
+ * under the lock that those nodes are still in the tree.  Rotations never
+ * modify the rotated nodes; they build new copies of them and swing a single
+ * child pointer, then flag the old nodes as removed.  A search that is still
+ * walking through the old nodes therefore always sees a consistent (if
+ * slightly out of date) subtree, in the same way as the chromatic trees of
+ * Brown et. al. and the relaxed AVL trees of Bronson et. al.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class RelaxedBalanceBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * Local variables and definitions.  The root is a sentinel internal node
+	 * with an infinite key whose left subtree holds the tree.  Inserting the
+	 * first element adds a second infinite sentinel below it, so every real
+	 * leaf always has both a parent and a grandparent.
+	 */
+	RelaxedBalanceNode<T> root;
+	final SizeCounter sizeCounter;
+
+	/**
+	 * Instantiates an empty relaxed-balance binary tree for use.
+	 */
+	public RelaxedBalanceBinaryTree() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates an empty relaxed-balance binary tree for use.
+	 *
+	 * @param exactSize True if size() must be exact (linearizable) rather
+	 * than an estimate, which makes every update more expensive (see
+	 * SizeCounter)
+	 */
+	public RelaxedBalanceBinaryTree(boolean exactSize) {
+		root = new RelaxedBalanceNode<T>(null, new RelaxedBalanceNode<T>(null),
+				new RelaxedBalanceNode<T>(null));
+		sizeCounter = new SizeCounter(exactSize);
+	}
+
+	/**
+	 * Compares data to the key of a node, treating a null key as infinite.
+	 *
+	 * @param data The data being searched for
+	 * @param node The node being compared against
+	 * @return A negative number, zero or a positive number if data is smaller
+	 * than, equal to or bigger than the node's key
+	 */
+	private int compare(T data, RelaxedBalanceNode<T> node) {
+		if(node.data == null)
+			return -1;
+		return data.compareTo(node.data);
+	}
+
+	/**
+	 * Returns the child of an internal node which data is routed to.
+	 *
+	 * @param node The internal node
+	 * @param data The data being searched for
+	 * @return The child of node whose subtree would contain data
+	 */
+	private RelaxedBalanceNode<T> child(RelaxedBalanceNode<T> node, T data) {
+		if(compare(data, node) < 0)
+			return node.left;
+		else
+			return node.right;
+	}
+
+	/**
+	 * Replaces a child pointer of a locked internal node.
+	 *
+	 * @param parentNode The locked node whose child is being replaced
+	 * @param oldChild The current child
+	 * @param newChild The replacement child
+	 */
+	private void replaceChild(RelaxedBalanceNode<T> parentNode,
+			RelaxedBalanceNode<T> oldChild, RelaxedBalanceNode<T> newChild) {
+		if(parentNode.left == oldChild)
+			parentNode.left = newChild;
+		else
+			parentNode.right = newChild;
+	}
+
+	/**
+	 * Inserts new data into the tree.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return insertLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Inserts new data into the tree.  Searches for the leaf where the data
+	 * belongs without locking, then locks only that leaf's parent to replace
+	 * the leaf with a new routing node.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	private boolean insertLeaf(T data) {
+
+		RelaxedBalanceNode<T> newLeaf = new RelaxedBalanceNode<T>(data);
+		RelaxedBalanceNode<T> newParent = null;
+		RelaxedBalanceNode<T> curNode = null;
+		RelaxedBalanceNode<T> parentNode = null;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.INSERT_RETRY);
+
+			//Find the leaf where the data belongs
+			parentNode = root;
+			curNode = child(root, data);
+			while(!curNode.isLeaf()) {
+				parentNode = curNode;
+				curNode = child(curNode, data);
+			}
+			if(curNode.data != null && data.compareTo(curNode.data) == 0)
+				return false;
+
+			//Lock the parent and make sure nothing changed since we read it
+			parentNode.lock();
+			try {
+				if(parentNode.removed || child(parentNode, data) != curNode)
+					continue retry;
+
+				if(compare(data, curNode) < 0)
+					newParent = new RelaxedBalanceNode<T>(curNode.data, newLeaf,
+							curNode);
+				else
+					newParent = new RelaxedBalanceNode<T>(data, curNode,
+							newLeaf);
+				replaceChild(parentNode, curNode, newParent);
+				sizeCounter.increment();
+			} finally {
+				parentNode.unlock();
+			}
+
+			//The insertion is complete, restore the balance of the tree
+			rebalance(data);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+		sizeCounter.beginUpdate();
+		try {
+			return removeLeaf(data);
+		} finally {
+			sizeCounter.endUpdate();
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree.  Searches for the leaf without
+	 * locking, then locks the leaf's grandparent and parent and replaces the
+	 * parent with the leaf's sibling.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	private T removeLeaf(T data) {
+
+		RelaxedBalanceNode<T> curNode = null;
+		RelaxedBalanceNode<T> parentNode = null;
+		RelaxedBalanceNode<T> gparentNode = null;
+		RelaxedBalanceNode<T> sibling = null;
+		int attempts = 0;
+
+		retry: while(true) {
+			if(attempts++ > 0)
+				TreeMetrics.count(Event.REMOVE_RETRY);
+
+			//Find the leaf where the data should be
+			gparentNode = null;
+			parentNode = root;
+			curNode = child(root, data);
+			while(!curNode.isLeaf()) {
+				gparentNode = parentNode;
+				parentNode = curNode;
+				curNode = child(curNode, data);
+			}
+			if(curNode.data == null || data.compareTo(curNode.data) != 0)
+				return null;
+
+			//Real leaves always have a grandparent thanks to the sentinels.
+			//Lock top-down and validate each node before locking its child.
+			gparentNode.lock();
+			try {
+				if(gparentNode.removed || (gparentNode.left != parentNode &&
+						gparentNode.right != parentNode))
+					continue retry;
+				parentNode.lock();
+				try {
+					if(child(parentNode, data) != curNode)
+						continue retry;
+
+					//Unlink the leaf and its parent
+					if(parentNode.left == curNode)
+						sibling = parentNode.right;
+					else
+						sibling = parentNode.left;
+					replaceChild(gparentNode, parentNode, sibling);
+					parentNode.removed = true;
+					sizeCounter.decrement();
+				} finally {
+					parentNode.unlock();
+				}
+			} finally {
+				gparentNode.unlock();
+			}
+
+			//The removal is complete, restore the balance of the tree
+			rebalance(data);
+			return curNode.data;
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the tree in O(1) time.  Unless the
+	 * tree was created with exactSize, the result is an estimate which may
+	 * not yet reflect updates that are in progress.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return sizeCounter.size();
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Takes no locks.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+
+		RelaxedBalanceNode<T> curNode = child(root, data);
+
+		while(!curNode.isLeaf())
+			curNode = child(curNode, data);
+		return curNode.data != null && data.compareTo(curNode.data) == 0;
+	}
+
+	/**
+	 * Walks back up the search path for the passed data, fixing the heights of
+	 * the nodes along the way and rotating any node that violates the AVL
+	 * balance condition.  Nodes that were replaced by a concurrent update are
+	 * skipped; the thread that replaced them is responsible for fixing them.
+	 *
+	 * @param data The data whose search path is rebalanced
+	 */
+	private void rebalance(T data) {
+
+		ArrayList<RelaxedBalanceNode<T>> path =
+				new ArrayList<RelaxedBalanceNode<T>>();
+		RelaxedBalanceNode<T> curNode = root;
+		int i = 0;
+
+		//Collect the internal nodes on the search path
+		while(!curNode.isLeaf()) {
+			path.add(curNode);
+			curNode = child(curNode, data);
+		}
+
+		//Fix them from the bottom up.  Sentinels are never rotated.
+		for(i = path.size() - 1; i > 0; i--) {
+			curNode = path.get(i);
+			if(curNode.data != null)
+				fixNode(path.get(i - 1), curNode);
+		}
+	}
+
+	/**
+	 * Updates the height of a node and rotates it if it is out of balance.
+	 *
+	 * @param parentNode The parent of the node being fixed
+	 * @param curNode The node being fixed
+	 */
+	private void fixNode(RelaxedBalanceNode<T> parentNode,
+			RelaxedBalanceNode<T> curNode) {
+
+		int leftHeight = 0;
+		int rightHeight = 0;
+
+		parentNode.lock();
+		try {
+			if(parentNode.removed || (parentNode.left != curNode &&
+					parentNode.right != curNode))
+				return;
+			curNode.lock();
+			try {
+				leftHeight = curNode.left.height;
+				rightHeight = curNode.right.height;
+				if(leftHeight - rightHeight > 1)
+					rotateRight(parentNode, curNode);
+				else if(rightHeight - leftHeight > 1)
+					rotateLeft(parentNode, curNode);
+				else if(curNode.height != 1 + Math.max(leftHeight, rightHeight))
+					curNode.height = 1 + Math.max(leftHeight, rightHeight);
+			} finally {
+				curNode.unlock();
+			}
+		} finally {
+			parentNode.unlock();
+		}
+	}
+
+	/**
+	 * Rotates a left-heavy node to the right, performing a double rotation if
+	 * the left child is itself right-heavy.  The rotated nodes are replaced by
+	 * new copies and then flagged as removed.  Must be called while holding
+	 * the locks of parentNode and curNode.
+	 *
+	 * @param parentNode The parent of the node being rotated
+	 * @param curNode The node being rotated
+	 */
+	private void rotateRight(RelaxedBalanceNode<T> parentNode,
+			RelaxedBalanceNode<T> curNode) {
+
+		RelaxedBalanceNode<T> leftNode = curNode.left;
+		RelaxedBalanceNode<T> leftRight = null;
+		RelaxedBalanceNode<T> newNode = null;
+		RelaxedBalanceNode<T> newLeft = null;
+
+		leftNode.lock();
+		try {
+			leftRight = leftNode.right;
+			if(leftNode.left.height >= leftRight.height) {
+				//Single rotation
+				newNode = new RelaxedBalanceNode<T>(curNode.data, leftRight,
+						curNode.right);
+				replaceChild(parentNode, curNode, new RelaxedBalanceNode<T>(
+						leftNode.data, leftNode.left, newNode));
+			} else {
+				//Double rotation, leftRight is taller so it must be internal
+				leftRight.lock();
+				try {
+					newLeft = new RelaxedBalanceNode<T>(leftNode.data,
+							leftNode.left, leftRight.left);
+					newNode = new RelaxedBalanceNode<T>(curNode.data,
+							leftRight.right, curNode.right);
+					replaceChild(parentNode, curNode, new RelaxedBalanceNode<T>(
+							leftRight.data, newLeft, newNode));
+					leftRight.removed = true;
+				} finally {
+					leftRight.unlock();
+				}
+			}
+			leftNode.removed = true;
+			curNode.removed = true;
+			TreeMetrics.count(Event.ROTATION);
+		} finally {
+			leftNode.unlock();
+		}
+	}
+
+	/**
+	 * Rotates a right-heavy node to the left, performing a double rotation if
+	 * the right child is itself left-heavy.  The rotated nodes are replaced by
+	 * new copies and then flagged as removed.  Must be called while holding
+	 * the locks of parentNode and curNode.
+	 *
+	 * @param parentNode The parent of the node being rotated
+	 * @param curNode The node being rotated
+	 */
+	private void rotateLeft(RelaxedBalanceNode<T> parentNode,
+			RelaxedBalanceNode<T> curNode) {
+
+		RelaxedBalanceNode<T> rightNode = curNode.right;
+		RelaxedBalanceNode<T> rightLeft = null;
+		RelaxedBalanceNode<T> newNode = null;
+		RelaxedBalanceNode<T> newRight = null;
+
+		rightNode.lock();
+		try {
+			rightLeft = rightNode.left;
+			if(rightNode.right.height >= rightLeft.height) {
+				//Single rotation
+				newNode = new RelaxedBalanceNode<T>(curNode.data, curNode.left,
+						rightLeft);
+				replaceChild(parentNode, curNode, new RelaxedBalanceNode<T>(
+						rightNode.data, newNode, rightNode.right));
+			} else {
+				//Double rotation, rightLeft is taller so it must be internal
+				rightLeft.lock();
+				try {
+					newNode = new RelaxedBalanceNode<T>(curNode.data,
+							curNode.left, rightLeft.left);
+					newRight = new RelaxedBalanceNode<T>(rightNode.data,
+							rightLeft.right, rightNode.right);
+					replaceChild(parentNode, curNode, new RelaxedBalanceNode<T>(
+							rightLeft.data, newNode, newRight));
+					rightLeft.removed = true;
+				} finally {
+					rightLeft.unlock();
+				}
+			}
+			rightNode.removed = true;
+			curNode.removed = true;
+			TreeMetrics.count(Event.ROTATION);
+		} finally {
+			rightNode.unlock();
+		}
+	}
+
+	/**
+	 * Returns the height of the tree, not counting the sentinel nodes.  Only
+	 * accurate when no other thread is modifying the tree.
+	 *
+	 * @return The height of the tree, or -1 if the tree is empty
+	 */
+	public int height() {
+		RelaxedBalanceNode<T> curNode = root.left;
+		if(curNode.isLeaf())
+			return -1;
+		return curNode.left.height;
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out the data of each
+	 * leaf.
+	 */
+	public void printTree() {
+		printTree(root);
+	}
+
+	/**
+	 * Private method to perform a depth-first search of the tree and print
+	 * every leaf's data.
+	 *
+	 * @param curNode The current node being printed.
+	 */
+	private void printTree(RelaxedBalanceNode<T> curNode) {
+
+		//Print the current leaf, skipping the sentinels
+		if(curNode.isLeaf()) {
+			if(curNode.data != null)
+				System.out.println(curNode.data.toString());
+			return;
+		}
+
+		//Print the left and right subtrees
+		printTree(curNode.left);
+		printTree(curNode.right);
+	}
+
+	/**
+	 * Driver program to test the relaxed-balance binary tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		RelaxedBalanceBinaryTree<Integer> tree =
+				new RelaxedBalanceBinaryTree<Integer>();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+
+		//Sorted inserts should still leave a balanced tree
+		for(i = 0; i < 100000; i++)
+			tree.insert(i);
+		System.out.println("Height after 100000 sorted inserts: " +
+				tree.height());
+	}
+}
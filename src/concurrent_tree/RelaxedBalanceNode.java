@@ -0,0 +1,86 @@
+package concurrent_tree;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RelaxedBalanceNode Class
+ *
+ * Implementation of a node to be used in conjunction with the
+ * RelaxedBalanceBinaryTree class.  The tree is leaf-oriented, so a node is
+ * either a leaf holding a data object or an internal routing node with exactly
+ * two children.  Leaves are immutable; internal nodes carry a lock which must
+ * be held to change their child pointers, a (possibly out of date) height used
+ * for rebalancing and a flag which is set once the node has been unlinked from
+ * the tree.  Once removed, a node's child pointers never change again.
+ *
+ * A null data object represents a key that is bigger than any other key, and
+ * is only used by the sentinel nodes at the top of the tree.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The generic data type being wrapped by the RelaxedBalanceNode class
+ */
+public class RelaxedBalanceNode<T> {
+
+	public final T data;
+	public final ReentrantLock lock;
+	public volatile RelaxedBalanceNode<T> left;
+	public volatile RelaxedBalanceNode<T> right;
+	public volatile int height;
+	public volatile boolean removed;
+
+	/**
+	 * Instantiates a leaf node wrapping the passed data object.
+	 * @param data The data object stored in the leaf, or null for the sentinel
+	 * leaf
+	 */
+	public RelaxedBalanceNode(T data) {
+		this.data = data;
+		lock = null;
+		left = null;
+		right = null;
+		height = 0;
+		removed = false;
+	}
+
+	/**
+	 * Overloaded constructor.  Instantiates an internal routing node with the
+	 * specified key and children.  Data smaller than the key is stored in the
+	 * left subtree, everything else in the right subtree.
+	 *
+	 * @param data The routing key of the node, or null for a sentinel
+	 * @param leftChild The left child of this new node
+	 * @param rightChild The right child of this new node
+	 */
+	public RelaxedBalanceNode(T data, RelaxedBalanceNode<T> leftChild,
+			RelaxedBalanceNode<T> rightChild) {
+		this.data = data;
+		lock = new ReentrantLock();
+		left = leftChild;
+		right = rightChild;
+		height = 1 + Math.max(leftChild.height, rightChild.height);
+		removed = false;
+	}
+
+	/**
+	 * Returns whether or not the current node is a leaf node.
+	 * @return True if the node is a leaf node, false otherwise
+	 */
+	public boolean isLeaf() {
+		return lock == null;
+	}
+
+	/**
+	 * Convenience method to lock the node's lock.
+	 */
+	public void lock() {
+		TreeMetrics.lock(lock);
+	}
+
+	/**
+	 * Convenience method to unlock the node's lock.
+	 */
+	public void unlock() {
+		lock.unlock();
+	}
+}
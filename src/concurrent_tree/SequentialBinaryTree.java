@@ -1,7 +1,13 @@
 package concurrent_tree;
 
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Sequential Binary Tree
@@ -16,18 +22,20 @@ import java.util.Random;
  * implement the Comparable interface so that an ordering can be determined.
  */
 public class SequentialBinaryTree<T extends Comparable<? super T>>
-		implements ConcurrentBinaryTree<T> {
+		implements ConcurrentBinaryTree<T>, Iterable<T> {
 
 	/**
 	 * Local variables and definitions.
 	 */
 	Node<T> root;
+	int count;
 	
 	/**
 	 * Instantiates an empty sequential binary tree for use.
 	 */
 	public SequentialBinaryTree() {
 		root = null;
+		count = 0;
 	}
 	
 	/**
@@ -71,6 +79,7 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 			else
 				parentNode.right = newNode;
 		}
+		count++;
 		return true;
 	}
 
@@ -125,6 +134,7 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 						replacement.left = curNode.left;
 						replacement.right = curNode.right;
 					}
+					count--;
 					return curNode.data;
 				}
 			}
@@ -214,6 +224,147 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 		return false;
 	}
 	
+	/**
+	 * Returns the number of elements in the tree.  The tree is sequential, so
+	 * the count is always exact.
+	 * 
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Searches the tree for a data element strictly inside the range (lo, hi),
+	 * preferring the one closest to the root so that it splits the range along
+	 * the left and right subtrees of its node.
+	 * 
+	 * @param lo The exclusive lower bound, or null if unbounded
+	 * @param hi The exclusive upper bound, or null if unbounded
+	 * @return A data element inside the range, or null if there is none
+	 */
+	private T splitKey(T lo, T hi) {
+		
+		Node<T> curNode = root;
+		
+		while(curNode != null) {
+			if(lo != null && curNode.data.compareTo(lo) <= 0)
+				curNode = curNode.right;
+			else if(hi != null && curNode.data.compareTo(hi) >= 0)
+				curNode = curNode.left;
+			else
+				return curNode.data;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns an iterator over every element in the tree, in ascending order.
+	 * The iterator does not support remove().
+	 * 
+	 * @return An iterator over the elements of the tree
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new RangeIterator(null, null);
+	}
+	
+	/**
+	 * Returns a spliterator over every element in the tree, in ascending
+	 * order.  The spliterator splits along the left and right subtrees of the
+	 * tree, see RangeSpliterator.
+	 * 
+	 * @return A spliterator over the elements of the tree
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new RangeSpliterator<T>(this::splitKey, RangeIterator::new,
+				null, null, size());
+	}
+	
+	/**
+	 * Returns a sequential stream of the elements in the tree, in ascending
+	 * order.
+	 * 
+	 * @return A stream over the elements of the tree
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * Returns a parallel stream of the elements in the tree, in ascending
+	 * order.  Disjoint subtrees of the tree are scanned by different
+	 * ForkJoinPool workers.
+	 * 
+	 * @return A parallel stream over the elements of the tree
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * In-order iterator over the elements of the tree in the range [lo, hi).
+	 * Keeps a stack of the nodes whose data and right subtrees still have to
+	 * be visited, skipping subtrees that lie outside of the range.
+	 * 
+	 * @author Rob Lyerly <rlyerly>
+	 */
+	private class RangeIterator implements Iterator<T> {
+		
+		ArrayDeque<Node<T>> stack;
+		T lo;
+		T hi;
+		
+		/**
+		 * Creates an iterator over the range [lo, hi).
+		 * 
+		 * @param lo The inclusive lower bound, or null if unbounded
+		 * @param hi The exclusive upper bound, or null if unbounded
+		 */
+		public RangeIterator(T lo, T hi) {
+			this.lo = lo;
+			this.hi = hi;
+			stack = new ArrayDeque<Node<T>>();
+			pushLeft(root);
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+		
+		@Override
+		public T next() {
+			if(stack.isEmpty())
+				throw new NoSuchElementException();
+			Node<T> curNode = stack.pop();
+			pushLeft(curNode.right);
+			return curNode.data;
+		}
+		
+		/**
+		 * Pushes the in-range nodes along the left spine of a subtree.
+		 * 
+		 * @param curNode The root of the subtree
+		 */
+		private void pushLeft(Node<T> curNode) {
+			while(curNode != null) {
+				if(lo != null && curNode.data.compareTo(lo) < 0) {
+					//curNode and its left subtree are below the range
+					curNode = curNode.right;
+				} else if(hi != null && curNode.data.compareTo(hi) >= 0) {
+					//curNode and its right subtree are above the range
+					curNode = curNode.left;
+				} else {
+					stack.push(curNode);
+					curNode = curNode.left;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Performs a depth-first search of the tree, printing out the data of each
 	 * node.
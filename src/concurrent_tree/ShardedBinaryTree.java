@@ -0,0 +1,531 @@
+package concurrent_tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Sharded Binary Tree
+ *
+ * This class partitions the key space into ranges and stores each range in
+ * its own, independent ConcurrentBinaryTree, so that operations on different
+ * ranges never touch the same root.  Shard i holds the keys in the range
+ * [splitters[i - 1], splitters[i]); the first and last shards are unbounded
+ * below and above.  The shards are created by a factory, so any of the tree
+ * implementations can be sharded.
+ *
+ * The splitters are either passed in or picked from a sample of the data (see
+ * sampled()).  Optionally, the tree can move its splitters online: with
+ * rebalancing enabled every operation counts towards the load of its shard,
+ * and rebalance() moves half of the keys of a hot shard into its cooler
+ * neighbour.  Rebalancing costs every operation a read lock on its shard, so
+ * it is disabled unless requested.
+ *
+ * The tree is iterable, in ascending order, when its shards are.  Shards
+ * which hold resources of their own, such as the server thread of a
+ * DelegatedBinaryTree, are released by close(), so such a tree must be closed
+ * once it is no longer needed.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class ShardedBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T>, Iterable<T>, AutoCloseable {
+
+	/**
+	 * A shard is rebalanced when it received at least HOT_FACTOR times the
+	 * average load since the last rebalance, and at least MIN_OPS operations
+	 * were performed in total.
+	 */
+	public static final double HOT_FACTOR = 2.0;
+	public static final long MIN_OPS = 10000;
+
+	/**
+	 * Local variables and definitions.  The splitters array is never
+	 * modified, a rebalance publishes a new one.
+	 */
+	final ConcurrentBinaryTree<T>[] shards;
+	volatile Object[] splitters;
+	final ReentrantReadWriteLock[] locks;
+	final LongAdder[] load;
+	volatile int epoch;
+
+	/**
+	 * Instantiates an empty sharded tree.
+	 *
+	 * @param splitters The lower bounds of every shard but the first, in
+	 * strictly ascending order; the tree has splitters.length + 1 shards
+	 * @param factory Creates the tree backing each shard
+	 * @param rebalancing True if the splitters may be moved by rebalance(),
+	 * in which case the shards must be Iterable
+	 * @throws IllegalArgumentException If the splitters aren't sorted or
+	 * rebalancing is requested for shards that can't be iterated
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedBinaryTree(T[] splitters,
+			Supplier<? extends ConcurrentBinaryTree<T>> factory,
+			boolean rebalancing) {
+		for(int i = 1; i < splitters.length; i++) {
+			if(splitters[i - 1].compareTo(splitters[i]) >= 0)
+				throw new IllegalArgumentException("Splitters " + (i - 1) +
+						" and " + i + " are not in strictly ascending order");
+		}
+		this.splitters = splitters.clone();
+		shards = (ConcurrentBinaryTree<T>[])
+				new ConcurrentBinaryTree<?>[splitters.length + 1];
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = factory.get();
+		if(rebalancing) {
+			if(!(shards[0] instanceof Iterable))
+				throw new IllegalArgumentException("Rebalancing requires " +
+						"Iterable shards");
+			locks = new ReentrantReadWriteLock[shards.length];
+			load = new LongAdder[shards.length];
+			for(int i = 0; i < shards.length; i++) {
+				locks[i] = new ReentrantReadWriteLock();
+				load[i] = new LongAdder();
+			}
+		} else {
+			locks = null;
+			load = null;
+		}
+		epoch = 0;
+	}
+
+	/**
+	 * Instantiates an empty sharded tree whose splitters don't move.
+	 *
+	 * @param splitters The lower bounds of every shard but the first, in
+	 * strictly ascending order
+	 * @param factory Creates the tree backing each shard
+	 */
+	public ShardedBinaryTree(T[] splitters,
+			Supplier<? extends ConcurrentBinaryTree<T>> factory) {
+		this(splitters, factory, false);
+	}
+
+	/**
+	 * Instantiates an empty sharded tree whose splitters divide a sample of
+	 * the expected data into shards of equal size.  If the sample holds fewer
+	 * distinct elements than requested shards, fewer shards are created.
+	 *
+	 * @param sample A sample of the data the tree will hold
+	 * @param numShards The number of shards
+	 * @param factory Creates the tree backing each shard
+	 * @param rebalancing True if the splitters may be moved by rebalance()
+	 * @return The new tree
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Comparable<? super T>> ShardedBinaryTree<T>
+			sampled(Collection<? extends T> sample, int numShards,
+					Supplier<? extends ConcurrentBinaryTree<T>> factory,
+					boolean rebalancing) {
+
+		Object[] sorted = new TreeSet<T>(sample).toArray();
+		List<T> splitters = new ArrayList<T>();
+		int index = 0, prev = 0;
+
+		if(numShards < 1)
+			throw new IllegalArgumentException("Invalid number of shards " +
+					numShards);
+		for(int i = 1; i < numShards; i++) {
+			index = (int)((long)i * sorted.length / numShards);
+			if(index > prev && index < sorted.length) {
+				splitters.add((T)sorted[index]);
+				prev = index;
+			}
+		}
+		return new ShardedBinaryTree<T>(
+				(T[])splitters.toArray(new Comparable<?>[splitters.size()]),
+				factory, rebalancing);
+	}
+
+	/**
+	 * Returns the shard a data element belongs to.
+	 *
+	 * @param bounds The splitters to use
+	 * @param data The data element
+	 * @return The index of the shard
+	 */
+	@SuppressWarnings("unchecked")
+	private int shardIndex(Object[] bounds, T data) {
+
+		int lo = 0, hi = bounds.length, mid = 0;
+
+		//Count the splitters which are smaller than or equal to data
+		while(lo < hi) {
+			mid = (lo + hi) >>> 1;
+			if(data.compareTo((T)bounds[mid]) >= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Locks the shard a data element belongs to against rebalancing.  The
+	 * shard is looked up again once it is locked, in case a rebalance moved
+	 * the splitters in the meantime.
+	 *
+	 * @param data The data element
+	 * @return The index of the locked shard
+	 */
+	private int lockShard(T data) {
+
+		int shard = 0;
+
+		while(true) {
+			shard = shardIndex(splitters, data);
+			locks[shard].readLock().lock();
+			if(shardIndex(splitters, data) == shard) {
+				load[shard].increment();
+				return shard;
+			}
+			locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Inserts new data into the shard it belongs to.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+
+		int shard = 0;
+
+		if(locks == null)
+			return shards[shardIndex(splitters, data)].insert(data);
+		shard = lockShard(data);
+		try {
+			return shards[shard].insert(data);
+		} finally {
+			locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the specified data from the shard it belongs to.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+
+		int shard = 0;
+
+		if(locks == null)
+			return shards[shardIndex(splitters, data)].remove(data);
+		shard = lockShard(data);
+		try {
+			return shards[shard].remove(data);
+		} finally {
+			locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches the shard the specified data belongs to.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+
+		int shard = 0;
+
+		if(locks == null)
+			return shards[shardIndex(splitters, data)].contains(data);
+		shard = lockShard(data);
+		try {
+			return shards[shard].contains(data);
+		} finally {
+			locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the total number of elements in the shards.  While a rebalance
+	 * is moving elements, they may briefly be counted in both shards.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	@Override
+	public int size() {
+
+		long size = 0;
+
+		for(ConcurrentBinaryTree<T> shard : shards)
+			size += shard.size();
+		return (int)Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the number of shards.
+	 * @return The number of shards
+	 */
+	public int numShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Moves the splitters if one shard received a disproportionate share of
+	 * the operations since the last call: half of the hot shard's elements are
+	 * moved into whichever neighbour received fewer operations, and the
+	 * splitter between the two is moved accordingly.  Only the two shards
+	 * involved are locked while elements are moved, so operations on the
+	 * other shards continue.  Intended to be called periodically, e.g. from a
+	 * scheduled executor.
+	 *
+	 * @return True if a shard was rebalanced, false otherwise
+	 * @throws IllegalStateException If the tree was created without
+	 * rebalancing
+	 */
+	public synchronized boolean rebalance() {
+
+		long[] ops = new long[shards.length];
+		long total = 0;
+		int hot = 0, cool = 0, first = 0, second = 0;
+
+		if(locks == null)
+			throw new IllegalStateException("Rebalancing is not enabled");
+		if(shards.length < 2)
+			return false;
+		for(int i = 0; i < shards.length; i++) {
+			ops[i] = load[i].sumThenReset();
+			total += ops[i];
+			if(ops[i] > ops[hot])
+				hot = i;
+		}
+		if(total < MIN_OPS ||
+				ops[hot] < HOT_FACTOR * ((double)total / shards.length))
+			return false;
+
+		//Pick the cooler neighbour and lock both shards in index order
+		if(hot == 0)
+			cool = 1;
+		else if(hot == shards.length - 1)
+			cool = hot - 1;
+		else
+			cool = (ops[hot - 1] <= ops[hot + 1]) ? hot - 1 : hot + 1;
+		first = Math.min(hot, cool);
+		second = Math.max(hot, cool);
+		locks[first].writeLock().lock();
+		locks[second].writeLock().lock();
+		try {
+			return moveHalf(hot, cool);
+		} finally {
+			locks[second].writeLock().unlock();
+			locks[first].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves half of the elements of a shard into a neighbouring shard.  Must
+	 * be called with both shards write locked.  The epoch is odd while
+	 * elements are being moved, so that iterators can tell that a move
+	 * happened while they were scanning.
+	 *
+	 * @param from The shard elements are moved out of
+	 * @param to The neighbouring shard they are moved into
+	 * @return True if elements were moved, false if the shard is too small
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean moveHalf(int from, int to) {
+
+		List<T> elements = new ArrayList<T>();
+		Object[] bounds = splitters.clone();
+		int mid = 0;
+
+		for(T data : (Iterable<T>)shards[from])
+			elements.add(data);
+		if(elements.size() < 2)
+			return false;
+		mid = elements.size() / 2;
+
+		epoch++;
+		if(to < from) {
+			//Move the lower half down, raising the shard's lower bound
+			insertBalanced(shards[to], elements, 0, mid);
+			for(int i = 0; i < mid; i++)
+				shards[from].remove(elements.get(i));
+			bounds[from - 1] = elements.get(mid);
+		} else {
+			//Move the upper half up, lowering the next shard's lower bound
+			insertBalanced(shards[to], elements, mid, elements.size());
+			for(int i = mid; i < elements.size(); i++)
+				shards[from].remove(elements.get(i));
+			bounds[from] = elements.get(mid);
+		}
+		splitters = bounds;
+		epoch++;
+		return true;
+	}
+
+	/**
+	 * Inserts a sorted range of elements into a tree middle element first, so
+	 * that the unbalanced trees don't degenerate into a list.
+	 *
+	 * @param tree The tree to insert the elements into
+	 * @param elements The sorted elements
+	 * @param lo The index of the first element to insert
+	 * @param hi The index after the last element to insert
+	 */
+	private static <T extends Comparable<? super T>> void insertBalanced(
+			ConcurrentBinaryTree<T> tree, List<T> elements, int lo, int hi) {
+
+		int mid = 0;
+
+		while(lo < hi) {
+			mid = (lo + hi) >>> 1;
+			tree.insert(elements.get(mid));
+			insertBalanced(tree, elements, lo, mid);
+			lo = mid + 1;
+		}
+	}
+
+	/**
+	 * Returns an iterator over every element in the tree, in ascending order,
+	 * which walks the shards one after the other.  The iterator is as weakly
+	 * consistent as the shards' iterators.  If a rebalance moves elements
+	 * while the iterator is running, the iterator notices the change of
+	 * epoch and restarts from the shard now holding the last element it
+	 * returned, skipping the elements it already returned, so that moved
+	 * elements are neither missed nor returned twice.  The iterator does not
+	 * support remove().
+	 *
+	 * @return An iterator over the elements of the tree
+	 * @throws UnsupportedOperationException If the shards aren't Iterable
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		if(!(shards[0] instanceof Iterable))
+			throw new UnsupportedOperationException("The shards are not " +
+					"Iterable");
+		return new ShardIterator();
+	}
+
+	/**
+	 * Closes every shard which is AutoCloseable, e.g. stops the server threads
+	 * of DelegatedBinaryTree shards.  Shards are closed even if closing an
+	 * earlier one fails; the first failure is rethrown once all of them were
+	 * tried, with the later ones attached as suppressed exceptions.  The tree
+	 * must not be used after it was closed.
+	 *
+	 * @throws IllegalStateException If a shard could not be closed
+	 */
+	@Override
+	public void close() {
+
+		IllegalStateException failure = null;
+
+		for(ConcurrentBinaryTree<T> shard : shards) {
+			if(!(shard instanceof AutoCloseable))
+				continue;
+			try {
+				((AutoCloseable)shard).close();
+			} catch(Exception e) {
+				if(e instanceof InterruptedException)
+					Thread.currentThread().interrupt();
+				if(failure == null)
+					failure = new IllegalStateException("Could not close a " +
+							"shard", e);
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Iterator over the shards, see iterator().
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private class ShardIterator implements Iterator<T> {
+
+		Iterator<T> curIterator;
+		int shard;
+		int startEpoch;
+		T next;
+		T last;
+
+		/**
+		 * Creates an iterator starting at the smallest element of the tree.
+		 */
+		public ShardIterator() {
+			last = null;
+			restart();
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			T data = next;
+			if(data == null)
+				throw new NoSuchElementException();
+			last = data;
+			advance();
+			return data;
+		}
+
+		/**
+		 * Starts scanning the shard which holds the elements following the
+		 * last one returned, waiting for a rebalance in progress to finish.
+		 */
+		@SuppressWarnings("unchecked")
+		private void restart() {
+			while(((startEpoch = epoch) & 1) != 0)
+				Thread.onSpinWait();
+			shard = (last == null) ? 0 : shardIndex(splitters, last);
+			curIterator = ((Iterable<T>)shards[shard]).iterator();
+		}
+
+		/**
+		 * Finds the next element, or sets next to null if there are no more.
+		 */
+		@SuppressWarnings("unchecked")
+		private void advance() {
+
+			T data = null;
+
+			next = null;
+			while(true) {
+				if(curIterator.hasNext()) {
+					data = curIterator.next();
+					if(epoch != startEpoch) {
+						restart();
+					} else if(last == null || data.compareTo(last) > 0) {
+						next = data;
+						return;
+					}
+				} else if(epoch != startEpoch) {
+					restart();
+				} else if(++shard < shards.length) {
+					curIterator = ((Iterable<T>)shards[shard]).iterator();
+				} else {
+					return;
+				}
+			}
+		}
+	}
+}
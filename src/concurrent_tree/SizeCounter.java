@@ -0,0 +1,112 @@
+package concurrent_tree;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Size Counter
+ *
+ * Keeps track of the number of elements in a concurrent tree so that size()
+ * doesn't have to traverse it.  Trees call increment() and decrement() right
+ * after an insert or remove succeeds.  The count is a LongAdder, whose cells
+ * are striped across threads, so updating it never contends even when every
+ * thread is inserting.
+ *
+ * By default size() is only a moment-in-time estimate: an update may have
+ * taken effect in the tree but not yet in the count, so while updates are in
+ * flight the count can be off by the number of updating threads.  In exact
+ * mode every update runs between beginUpdate() and endUpdate(), which hold
+ * the read side of a read-write lock, and size() takes the write side, so it
+ * waits for the updates in flight to finish and blocks new ones while the
+ * count is read.  This makes size() linearizable, but it costs every update a
+ * shared lock acquisition and makes the lock-free trees blocking, so it should
+ * only be enabled by callers that need an exact count.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class SizeCounter {
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final LongAdder count;
+	final ReentrantReadWriteLock exactLock;
+
+	/**
+	 * Creates a counter for an empty tree.
+	 *
+	 * @param exact True if size() must be linearizable
+	 */
+	SizeCounter(boolean exact) {
+		count = new LongAdder();
+		exactLock = exact ? new ReentrantReadWriteLock() : null;
+	}
+
+	/**
+	 * Called before an insert or remove starts.  Must be paired with a call
+	 * to endUpdate() in a finally block.
+	 */
+	void beginUpdate() {
+		if(exactLock != null)
+			exactLock.readLock().lock();
+	}
+
+	/**
+	 * Called after an insert or remove has finished.
+	 */
+	void endUpdate() {
+		if(exactLock != null)
+			exactLock.readLock().unlock();
+	}
+
+	/**
+	 * Counts an element that was inserted.
+	 */
+	void increment() {
+		count.increment();
+	}
+
+	/**
+	 * Counts an element that was removed.
+	 */
+	void decrement() {
+		count.decrement();
+	}
+
+	/**
+	 * Counts elements that were added in bulk, e.g. by fromSorted().
+	 *
+	 * @param elements The number of elements added
+	 */
+	void add(long elements) {
+		count.add(elements);
+	}
+
+	/**
+	 * Returns the number of elements in the tree, capped at
+	 * Integer.MAX_VALUE.
+	 *
+	 * @return The number of elements in the tree
+	 */
+	int size() {
+
+		long sum = 0;
+
+		if(exactLock == null) {
+			sum = count.sum();
+		} else {
+			exactLock.writeLock().lock();
+			try {
+				sum = count.sum();
+			} finally {
+				exactLock.writeLock().unlock();
+			}
+		}
+
+		//A remove's decrement may be counted before the matching insert's
+		//increment, so the estimate can briefly be negative
+		if(sum < 0)
+			return 0;
+		return (int)Math.min(sum, Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,86 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Test-and-Test-and-Set Lock
+ *
+ * Spin lock which waits by reading the lock word, so that waiting threads spin
+ * in their own caches, and only tries to grab the lock with a compare-and-set
+ * once it looks free.  When several waiters see the lock become free at once
+ * all but one of them fail, and those back off as decided by a
+ * ContentionManager before trying again.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class TTASLock implements NodeLock {
+
+	/**
+	 * VarHandle used to compare-and-set the lock word.
+	 */
+	private static final VarHandle STATE;
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(TTASLock.class,
+					"state", int.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Local variables and definitions.
+	 */
+	private volatile int state;
+	private final ContentionManager backoff;
+
+	/**
+	 * Creates an unlocked test-and-test-and-set lock.
+	 *
+	 * @param backoff The contention manager deciding how long to back off
+	 * after a failed attempt to grab the lock
+	 */
+	TTASLock(ContentionManager backoff) {
+		this.backoff = backoff;
+		state = 0;
+	}
+
+	@Override
+	public void lock() {
+		if(STATE.compareAndSet(this, 0, 1)) {
+			TreeMetrics.count(TreeMetrics.Event.LOCK_ACQUIRED);
+			return;
+		}
+		lockSlow();
+	}
+
+	/**
+	 * Acquires the lock after the first attempt failed.
+	 */
+	private void lockSlow() {
+
+		long start = (TreeMetrics.ENABLED ? System.nanoTime() : 0);
+		int failures = 0;
+
+		while(true) {
+			backoff.backoff(++failures);
+			for(int spins = 0; state != 0; spins++) {
+				//Yield rather than spin if the holder might not be running
+				if(spins < QueueNode.SPINS)
+					Thread.onSpinWait();
+				else
+					Thread.yield();
+			}
+			if(STATE.compareAndSet(this, 0, 1))
+				break;
+		}
+		backoff.succeeded(failures);
+		TreeMetrics.lockContended(start);
+	}
+
+	@Override
+	public void unlock() {
+		state = 0;
+	}
+}
@@ -0,0 +1,132 @@
+package concurrent_tree;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tree Codec Interface
+ *
+ * Converts the data stored in a tree to and from the binary representation
+ * used by tree snapshots (see LockFreeBinaryTree.snapshot() and
+ * FineGrainedLockingBinaryTree.snapshot()).  Data is written to a stream but
+ * read back from a memory-mapped buffer, so that loading a snapshot doesn't
+ * copy the file through the heap.  Codecs for a few common types are provided.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ *
+ * @param <T> The type of data being encoded
+ */
+public interface TreeCodec<T> {
+
+	/**
+	 * Writes a data element.
+	 *
+	 * @param data The data element to write
+	 * @param out Where the data element is written
+	 * @throws IOException If writing fails
+	 */
+	void write(T data, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a data element written by write(), advancing the buffer's position
+	 * past it.
+	 *
+	 * @param in The buffer holding the data element
+	 * @return The data element
+	 * @throws IOException If the bytes can't be a data element written by
+	 * write()
+	 * @throws java.nio.BufferUnderflowException If the buffer ends before the
+	 * end of the data element
+	 */
+	T read(ByteBuffer in) throws IOException;
+
+	/**
+	 * Returns the smallest number of bytes write() produces for a data
+	 * element.  Used to reject snapshots whose header claims more elements
+	 * than the file can hold before allocating room for them.
+	 *
+	 * @return The minimum size of an encoded data element, at least 1
+	 */
+	default int minSize() {
+		return 1;
+	}
+
+	/**
+	 * Codec for Integers, stored as 4 bytes.
+	 */
+	TreeCodec<Integer> INTEGER = new TreeCodec<Integer>() {
+		@Override
+		public void write(Integer data, DataOutput out) throws IOException {
+			out.writeInt(data);
+		}
+
+		@Override
+		public Integer read(ByteBuffer in) {
+			return in.getInt();
+		}
+
+		@Override
+		public int minSize() {
+			return Integer.BYTES;
+		}
+	};
+
+	/**
+	 * Codec for Longs, stored as 8 bytes.
+	 */
+	TreeCodec<Long> LONG = new TreeCodec<Long>() {
+		@Override
+		public void write(Long data, DataOutput out) throws IOException {
+			out.writeLong(data);
+		}
+
+		@Override
+		public Long read(ByteBuffer in) {
+			return in.getLong();
+		}
+
+		@Override
+		public int minSize() {
+			return Long.BYTES;
+		}
+	};
+
+	/**
+	 * Codec for Strings, stored as their length followed by their UTF-8
+	 * bytes.
+	 */
+	TreeCodec<String> STRING = new TreeCodec<String>() {
+		@Override
+		public void write(String data, DataOutput out) throws IOException {
+			byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public String read(ByteBuffer in) throws IOException {
+			int length = in.getInt();
+			byte[] bytes = null;
+
+			//Check the length before allocating anything.  A string running
+			//past the end of the buffer underflows like any other element,
+			//so that the snapshot reader can tell a string straddling two
+			//windows of the file from a truncated file.
+			if(length < 0)
+				throw new IOException("Invalid string length " + length);
+			if(length > in.remaining())
+				throw new BufferUnderflowException();
+			bytes = new byte[length];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int minSize() {
+			return Integer.BYTES;
+		}
+	};
+}
@@ -0,0 +1,305 @@
+package concurrent_tree;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Tree Metrics
+ *
+ * Opt-in contention instrumentation shared by all of the tree
+ * implementations.  Metrics are disabled by default and are enabled by
+ * starting the JVM with -Dconcurrent_tree.metrics=true.  The ENABLED flag is a
+ * static final constant, so when metrics are disabled the JIT folds every
+ * guarded call site away and the hot paths are left exactly as they were.
+ *
+ * Events are counted with LongAdders, which stripe their cells across threads
+ * so that recording an event doesn't itself become a point of contention.
+ * Histograms (traversal depths, lock wait times, ...) use power-of-two
+ * buckets, each of which is also a LongAdder.  The metrics can be read
+ * programmatically or through JMX once registerMBean() has been called.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public final class TreeMetrics {
+
+	/**
+	 * True if metrics are being recorded.
+	 */
+	public static final boolean ENABLED =
+			Boolean.getBoolean("concurrent_tree.metrics");
+
+	/**
+	 * Name the MBean is registered under.
+	 */
+	public static final String MBEAN_NAME = "concurrent_tree:type=TreeMetrics";
+
+	/**
+	 * Countable events.
+	 */
+	public enum Event {
+		/** An insert restarted after a failed CAS or validation */
+		INSERT_RETRY,
+		/** A remove restarted after a failed CAS or validation */
+		REMOVE_RETRY,
+		/**
+		 * A remove failed to mark the parent of the leaf it removes, because
+		 * another update flagged or marked the parent first
+		 */
+		MARK_FAILURE,
+		/** An operation helped complete another thread's pending update */
+		HELP,
+		/** A traversal ran into a marked node that is still linked */
+		MARKED_NODE_TRAVERSED,
+		/** A read-only traversal restarted after a failed validation */
+		VALIDATION_FAILURE,
+		/** A rebalancing rotation was performed */
+		ROTATION,
+		/** A lock was acquired */
+		LOCK_ACQUIRED,
+		/** A lock was acquired, but only after waiting for it */
+		LOCK_CONTENDED,
+		/** A combiner applied a batch of published operations */
+		COMBINING_PASS
+	}
+
+	/**
+	 * Recorded distributions.
+	 */
+	public enum Histogram {
+		/** Number of nodes visited by a traversal */
+		TRAVERSAL_DEPTH,
+		/** Nanoseconds spent waiting for a contended lock */
+		LOCK_WAIT_NANOS,
+		/** Number of operations applied in a single combining pass */
+		COMBINED_BATCH_SIZE
+	}
+
+	/**
+	 * Number of histogram buckets.  Bucket 0 counts zeroes and bucket i counts
+	 * values in [2^(i-1), 2^i).
+	 */
+	public static final int BUCKETS = 64;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	private static final LongAdder[] events;
+	private static final LongAdder[][] histograms;
+	static {
+		events = new LongAdder[Event.values().length];
+		for(int i = 0; i < events.length; i++)
+			events[i] = new LongAdder();
+		histograms = new LongAdder[Histogram.values().length][BUCKETS];
+		for(int i = 0; i < histograms.length; i++) {
+			for(int j = 0; j < BUCKETS; j++)
+				histograms[i][j] = new LongAdder();
+		}
+	}
+
+	private TreeMetrics() {
+	}
+
+	/**
+	 * Counts an occurrence of the event.  Does nothing if metrics are
+	 * disabled.
+	 * @param event The event that occurred
+	 */
+	public static void count(Event event) {
+		if(ENABLED)
+			events[event.ordinal()].increment();
+	}
+
+	/**
+	 * Records a value in a histogram.  Does nothing if metrics are disabled.
+	 * @param histogram The histogram to record the value in
+	 * @param value The (non-negative) value
+	 */
+	public static void record(Histogram histogram, long value) {
+		if(ENABLED) {
+			int bucket = 64 - Long.numberOfLeadingZeros(Math.max(value, 0));
+			histograms[histogram.ordinal()][Math.min(bucket, BUCKETS - 1)]
+					.increment();
+		}
+	}
+
+	/**
+	 * Acquires a lock, recording the acquisition and (if the lock was not
+	 * immediately available) how long the thread waited for it.  If metrics
+	 * are disabled this is just lock.lock().
+	 * @param lock The lock to acquire
+	 */
+	public static void lock(Lock lock) {
+		if(!ENABLED) {
+			lock.lock();
+			return;
+		}
+		if(!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			record(Histogram.LOCK_WAIT_NANOS, System.nanoTime() - start);
+			count(Event.LOCK_CONTENDED);
+		}
+		count(Event.LOCK_ACQUIRED);
+	}
+
+	/**
+	 * Records the acquisition of a lock which the thread had to wait for, for
+	 * locks that can't be acquired through lock(Lock).  Does nothing if
+	 * metrics are disabled.
+	 * @param start When the thread started waiting, from System.nanoTime()
+	 */
+	static void lockContended(long start) {
+		if(ENABLED) {
+			record(Histogram.LOCK_WAIT_NANOS, System.nanoTime() - start);
+			count(Event.LOCK_CONTENDED);
+			count(Event.LOCK_ACQUIRED);
+		}
+	}
+
+	/**
+	 * Returns the number of times an event occurred.
+	 * @param event The event
+	 * @return The current count
+	 */
+	public static long get(Event event) {
+		return events[event.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the bucket counts of a histogram.
+	 * @param histogram The histogram
+	 * @return The count of each bucket, see BUCKETS
+	 */
+	public static long[] get(Histogram histogram) {
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++)
+			counts[i] = histograms[histogram.ordinal()][i].sum();
+		return counts;
+	}
+
+	/**
+	 * Returns an upper bound on the given percentile of a histogram, i.e. the
+	 * upper limit of the bucket the percentile falls into.
+	 * @param histogram The histogram
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The upper bound, or 0 if nothing was recorded
+	 */
+	public static long percentile(Histogram histogram, double percentile) {
+		long[] counts = get(histogram);
+		long total = 0;
+		long seen = 0;
+
+		for(long count : counts)
+			total += count;
+		if(total == 0)
+			return 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen * 100.0 >= total * percentile)
+				return (i == 0) ? 0 : (1L << i) - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Resets every counter and histogram.
+	 */
+	public static void reset() {
+		for(LongAdder event : events)
+			event.reset();
+		for(LongAdder[] histogram : histograms) {
+			for(LongAdder bucket : histogram)
+				bucket.reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under MBEAN_NAME.
+	 * Registering more than once has no effect.
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+						new MXBean(), name);
+		} catch(JMException e) {
+			throw new IllegalStateException("Could not register " +
+					MBEAN_NAME, e);
+		}
+	}
+
+	/**
+	 * JMX view of the metrics.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	public interface TreeMetricsMXBean {
+
+		boolean isEnabled();
+
+		Map<String, Long> getEvents();
+
+		long[] getTraversalDepthHistogram();
+
+		long[] getLockWaitNanosHistogram();
+
+		long[] getCombinedBatchSizeHistogram();
+
+		long getLockWaitNanosP99();
+
+		void reset();
+	}
+
+	/**
+	 * Implementation of the MXBean, forwarding to the static methods.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static class MXBean implements TreeMetricsMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return ENABLED;
+		}
+
+		@Override
+		public Map<String, Long> getEvents() {
+			Map<String, Long> counts = new LinkedHashMap<String, Long>();
+			for(Event event : Event.values())
+				counts.put(event.name(), get(event));
+			return counts;
+		}
+
+		@Override
+		public long[] getTraversalDepthHistogram() {
+			return get(Histogram.TRAVERSAL_DEPTH);
+		}
+
+		@Override
+		public long[] getLockWaitNanosHistogram() {
+			return get(Histogram.LOCK_WAIT_NANOS);
+		}
+
+		@Override
+		public long[] getCombinedBatchSizeHistogram() {
+			return get(Histogram.COMBINED_BATCH_SIZE);
+		}
+
+		@Override
+		public long getLockWaitNanosP99() {
+			return percentile(Histogram.LOCK_WAIT_NANOS, 99);
+		}
+
+		@Override
+		public void reset() {
+			TreeMetrics.reset();
+		}
+	}
+}
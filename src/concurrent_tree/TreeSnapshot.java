@@ -0,0 +1,170 @@
+package concurrent_tree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tree Snapshot
+ *
+ * Reads and writes the snapshot files shared by the trees.  A snapshot is a
+ * small header (a magic number, the format version and the number of
+ * elements) followed by the elements in ascending order, each encoded with a
+ * TreeCodec.  Since the elements are sorted, a tree can be rebuilt from a
+ * snapshot directly in balanced form instead of inserting the elements one at
+ * a time.
+ *
+ * Snapshots are read through memory-mapped windows of the file, so files
+ * larger than a single MappedByteBuffer can hold are supported.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+final class TreeSnapshot {
+
+	/**
+	 * Header of a snapshot file.
+	 */
+	static final int MAGIC = 0x43425354; //"CBST"
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * Size of the windows the file is mapped in.
+	 */
+	static final long WINDOW_SIZE = 1L << 30;
+
+	private TreeSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot holding every element returned by the iterator, which
+	 * must return the elements in strictly ascending order.  The number of
+	 * elements isn't known until the iterator is exhausted, so it is filled
+	 * into the header at the end.  The snapshot is written to a temporary file
+	 * next to the target, forced to disk and only then renamed over the
+	 * target, so a crash or a failure partway through leaves the previous
+	 * snapshot intact.
+	 *
+	 * @param path The file to write, which is replaced if it exists
+	 * @param elements The elements to write
+	 * @param codec The codec used to encode the elements
+	 * @return The number of elements written
+	 * @throws IOException If writing the file fails
+	 */
+	static <T> long write(Path path, Iterator<T> elements, TreeCodec<T> codec)
+			throws IOException {
+
+		DataOutputStream out = null;
+		ByteBuffer count = ByteBuffer.allocate(8);
+		Path target = path.toAbsolutePath();
+		Path temp = Files.createTempFile(target.getParent(),
+				target.getFileName() + ".", ".tmp");
+		boolean moved = false;
+		long written = 0;
+
+		try {
+			try(FileChannel channel = FileChannel.open(temp,
+					StandardOpenOption.WRITE)) {
+				out = new DataOutputStream(new BufferedOutputStream(
+						Channels.newOutputStream(channel), 1 << 16));
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(0);
+				while(elements.hasNext()) {
+					codec.write(elements.next(), out);
+					written++;
+				}
+				out.flush();
+
+				//Go back and fill in the number of elements
+				count.putLong(written).flip();
+				channel.write(count, 8);
+				channel.force(true);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+			return written;
+		} finally {
+			if(!moved)
+				Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads the elements of a snapshot.
+	 *
+	 * @param path The snapshot file
+	 * @param codec The codec used to decode the elements
+	 * @return The elements, in ascending order
+	 * @throws IOException If the file can't be read or isn't a valid snapshot
+	 */
+	static <T extends Comparable<? super T>> List<T> read(Path path,
+			TreeCodec<T> codec) throws IOException {
+
+		MappedByteBuffer buf = null;
+		List<T> elements = null;
+		long size = 0, windowStart = 0, count = 0;
+		int start = 0;
+		T data = null;
+		T last = null;
+
+		try(FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			size = channel.size();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(size, WINDOW_SIZE));
+			try {
+				if(buf.getInt() != MAGIC)
+					throw new IOException(path + " is not a tree snapshot");
+				if(buf.getInt() != FORMAT_VERSION)
+					throw new IOException(path + " has an unsupported format");
+				count = buf.getLong();
+			} catch(BufferUnderflowException e) {
+				throw new IOException(path + " is not a tree snapshot");
+			}
+			if(count < 0 || count > Integer.MAX_VALUE - 8)
+				throw new IOException(path + " holds too many elements");
+			if(count > (size - HEADER_SIZE) / codec.minSize())
+				throw new IOException(path + " is truncated");
+
+			elements = new ArrayList<T>((int)count);
+			while(elements.size() < count) {
+				start = buf.position();
+				try {
+					data = codec.read(buf);
+				} catch(BufferUnderflowException e) {
+					//The element straddles the end of the window, map the
+					//next window starting at the element
+					if(windowStart + buf.limit() >= size)
+						throw new IOException(path + " is truncated");
+					if(start == 0)
+						throw new IOException(path + " holds an element " +
+								"larger than the mapping window");
+					windowStart += start;
+					buf = channel.map(FileChannel.MapMode.READ_ONLY,
+							windowStart, Math.min(size - windowStart,
+									WINDOW_SIZE));
+					continue;
+				}
+				if(last != null && last.compareTo(data) >= 0)
+					throw new IOException(path + " is not sorted");
+				elements.add(data);
+				last = data;
+			}
+			return elements;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package test_bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Key Distribution
+ *
+ * Enumerates the key distributions the workload driver can draw keys from.
+ * Every worker thread gets its own KeyGenerator (with its own random number
+ * generator), so drawing keys never contends between threads.  All keys are
+ * in the range [0, keyRange).
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public enum KeyDistribution {
+
+	/**
+	 * Every key is equally likely.
+	 */
+	UNIFORM {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			return () -> rand.nextInt(keyRange);
+		}
+	},
+
+	/**
+	 * Keys follow a Zipfian distribution with exponent ZIPF_THETA, as in YCSB:
+	 * the i-th most popular key is chosen with probability proportional to
+	 * 1 / i^theta.  The ranks are hashed onto the key range so that the
+	 * popular keys are spread across the tree rather than all sitting in the
+	 * leftmost subtree.
+	 */
+	ZIPFIAN {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			return new ZipfianGenerator(keyRange, ZIPF_THETA, seed);
+		}
+	},
+
+	/**
+	 * HOT_OP_FRACTION of the operations go to the HOT_KEY_FRACTION of the
+	 * keys at the bottom of the key range; the rest are uniform over the
+	 * remaining keys.
+	 */
+	HOTSPOT {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			int hotKeys = Math.max(1, (int)(keyRange * HOT_KEY_FRACTION));
+			return () -> {
+				if(hotKeys >= keyRange || rand.nextDouble() < HOT_OP_FRACTION)
+					return rand.nextInt(hotKeys);
+				return hotKeys + rand.nextInt(keyRange - hotKeys);
+			};
+		}
+	},
+
+	/**
+	 * Each thread draws keys uniformly from its own slice of the key range,
+	 * so threads never touch the same keys and only contend where their paths
+	 * through the tree meet near the root.
+	 */
+	DISJOINT {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			int firstKey = (int)((long)keyRange * thread / threads);
+			int numKeys = Math.max(1,
+					(int)((long)keyRange * (thread + 1) / threads) - firstKey);
+			return () -> firstKey + rand.nextInt(numKeys);
+		}
+	},
+
+	/**
+	 * Each thread walks the key range in ascending order, starting at its own
+	 * offset and wrapping around at the end, like a bulk load of sorted
+	 * data.  Sequential keys are the worst case for the unbalanced trees.
+	 */
+	SEQUENTIAL {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			return new KeyGenerator() {
+				int next = (int)((long)keyRange * thread / threads);
+
+				@Override
+				public int nextKey() {
+					int key = next;
+					next = (next + 1 == keyRange) ? 0 : next + 1;
+					return key;
+				}
+			};
+		}
+	},
+
+	/**
+	 * Keys are uniform over a window of WINDOW_FRACTION of the key range
+	 * which slides forward by one key per operation, wrapping around at the
+	 * end, like a time series where recent keys are inserted and old ones
+	 * expire.
+	 */
+	SLIDING_WINDOW {
+		@Override
+		public KeyGenerator generator(int keyRange, int thread, int threads,
+				long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			int window = Math.max(1, (int)(keyRange * WINDOW_FRACTION));
+			return new KeyGenerator() {
+				int base = 0;
+
+				@Override
+				public int nextKey() {
+					int key = (int)(((long)base + rand.nextInt(window)) %
+							keyRange);
+					base = (base + 1 == keyRange) ? 0 : base + 1;
+					return key;
+				}
+			};
+		}
+	};
+
+	/**
+	 * Parameters of the skewed distributions.
+	 */
+	public static final double ZIPF_THETA = 0.99;
+	public static final double HOT_KEY_FRACTION = 0.2;
+	public static final double HOT_OP_FRACTION = 0.8;
+	public static final double WINDOW_FRACTION = 0.1;
+
+	/**
+	 * Source of keys for a single worker thread.  Generators are not thread
+	 * safe.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	public interface KeyGenerator {
+
+		/**
+		 * Returns the next key.
+		 * @return A key in the range [0, keyRange)
+		 */
+		int nextKey();
+	}
+
+	/**
+	 * Creates a key generator for one worker thread.
+	 *
+	 * @param keyRange The number of distinct keys
+	 * @param thread The index of the worker thread
+	 * @param threads The number of worker threads
+	 * @param seed Seed for the generator's random number generator
+	 * @return The new generator
+	 */
+	public abstract KeyGenerator generator(int keyRange, int thread,
+			int threads, long seed);
+
+	/**
+	 * Zipfian generator from "Quickly Generating Billion-Record Synthetic
+	 * Databases" by Gray et. al., the algorithm used by YCSB.  Draws a rank in
+	 * [0, items) in O(1) time after an O(items) setup computing zeta(items).
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private static class ZipfianGenerator implements KeyGenerator {
+
+		final SplittableRandom rand;
+		final int items;
+		final double theta;
+		final double zetaN;
+		final double alpha;
+		final double eta;
+
+		ZipfianGenerator(int items, double theta, long seed) {
+
+			double zeta2 = zeta(2, theta);
+
+			rand = new SplittableRandom(seed);
+			this.items = items;
+			this.theta = theta;
+			zetaN = zeta(items, theta);
+			alpha = 1.0 / (1.0 - theta);
+			eta = (1.0 - Math.pow(2.0 / items, 1.0 - theta)) /
+					(1.0 - zeta2 / zetaN);
+		}
+
+		/**
+		 * Computes the generalized harmonic number of order theta.
+		 */
+		private static double zeta(int n, double theta) {
+
+			double sum = 0;
+
+			for(int i = 1; i <= n; i++)
+				sum += 1.0 / Math.pow(i, theta);
+			return sum;
+		}
+
+		@Override
+		public int nextKey() {
+
+			double u = rand.nextDouble();
+			double uz = u * zetaN;
+			long rank = 0;
+
+			if(uz < 1.0)
+				rank = 0;
+			else if(uz < 1.0 + Math.pow(0.5, theta))
+				rank = 1;
+			else
+				rank = (long)(items * Math.pow(eta * u - eta + 1, alpha));
+			if(rank >= items)
+				rank = items - 1;
+
+			//Scatter the ranks over the key range (64-bit FNV-1a)
+			return (int)Long.remainderUnsigned(fnv(rank), items);
+		}
+
+		/**
+		 * Hashes a rank with 64-bit FNV-1a.
+		 */
+		private static long fnv(long value) {
+
+			long hash = 0xcbf29ce484222325L;
+
+			for(int i = 0; i < 8; i++) {
+				hash ^= value & 0xff;
+				hash *= 0x100000001b3L;
+				value >>>= 8;
+			}
+			return hash;
+		}
+	}
+}
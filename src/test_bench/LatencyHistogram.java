@@ -0,0 +1,146 @@
+package test_bench;
+
+/**
+ * Latency Histogram
+ *
+ * Log-linear histogram of operation latencies in nanoseconds.  Values below
+ * 2^SUB_BITS get a bucket each; above that, every power of two is split into
+ * 2^SUB_BITS equal buckets, so any recorded value is within about 6% of the
+ * value reported for its bucket while the whole long range fits in under a
+ * thousand counters.  Recording is a couple of shifts and an array increment,
+ * cheap enough to time every operation.
+ *
+ * Histograms are not thread safe; each worker thread records into its own and
+ * they are merged once the run is over.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of bits of precision kept below the leading one.
+	 */
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final long[] counts;
+	long count;
+	long sum;
+	long max;
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		counts = new long[NUM_BUCKETS];
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	/**
+	 * Returns the bucket a value is counted in.
+	 */
+	private static int bucket(long value) {
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS +
+				(int)((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the largest value counted in a bucket.
+	 */
+	private static long highestValue(int bucket) {
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos The latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts[bucket(nanos)]++;
+		count++;
+		sum += nanos;
+		if(nanos > max)
+			max = nanos;
+	}
+
+	/**
+	 * Adds the values recorded in another histogram to this one.
+	 *
+	 * @param other The histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < NUM_BUCKETS; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 * @return The number of recorded latencies
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean latency.
+	 * @return The mean latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : (double)sum / count;
+	}
+
+	/**
+	 * Returns the largest recorded latency, exactly.
+	 * @return The largest latency in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns a percentile of the recorded latencies.  The result is the
+	 * largest value of the bucket the percentile falls in (capped at the
+	 * maximum), so it never underestimates the latency.
+	 *
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		long rank = (long)Math.ceil(percentile / 100.0 * count);
+		long seen = 0;
+
+		if(count == 0)
+			return 0;
+		rank = Math.max(1, Math.min(rank, count));
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(highestValue(i), max);
+		}
+		return max;
+	}
+}
@@ -2,109 +2,161 @@ package test_bench;
 
 import concurrent_tree.*;
 
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
-import java.util.Random;
-
+/**
+ * Test Bench
+ *
+ * Runs a Workload against each of the selected trees at increasing thread
+ * counts, printing the throughput and the latency percentiles of every
+ * operation type.  Unlike the JMH benchmarks, which report average throughput,
+ * this shows the tail latency of each operation under the chosen key
+ * distribution.  Arguments are key=value pairs:
+ *
+ * tree=A,B           trees to test, see TreeFactory (default: all of them)
+ * threads=1,2,4,8    thread counts (default: powers of two up to maxThreads;
+ *                    the sequential tree only runs with 1)
+ * dist=UNIFORM       UNIFORM, ZIPFIAN, HOTSPOT, DISJOINT, SEQUENTIAL or
+ *                    SLIDING_WINDOW
+ * mix=20/20/60       percentage of inserts, removes and contains
+ * keyRange=200000    number of distinct keys
+ * prefill=100000     number of keys inserted before each run
+ * warmup=2           seconds to run before recording latencies
+ * duration=10        seconds to record latencies for
+ * seed=N             seed for the random number generators
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
 public class TestBench {
-	
+
 	public static final int maxThreads = 8;
-	private static final int numOps = 1000000;
 
-	private static class TreeTestRunnable implements Runnable {
+	/**
+	 * Formats a latency in microseconds.
+	 */
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / 1000.0);
+	}
 
-		ConcurrentBinaryTree<Integer> tree = null;
-		LinkedList<Integer> list = null;
-		Random rand = null;
-		
-		/**
-		 * Creates a new runnable object to test the trees.
-		 * @param tree The particular tree implementation to test
-		 */
-		public TreeTestRunnable(ConcurrentBinaryTree<Integer> tree) {
-			this.tree = tree;
-			list = new LinkedList<Integer>();
-			rand = new Random();
-		}
-		
-		/**
-		 * Runs the concurrent binary tree throughput test.
-		 */
-		@Override
-		public void run() {
-			for(int i = 0; i < numOps; i++) {
-				int random = rand.nextInt();
-				if((random % 2) == 0) {
-					if(tree.insert(random)) {
-						list.addLast(random);
-					}
-				} else {
-					try{
-						Integer data = list.removeFirst();
-						data = tree.remove(data);
-						if(data == null) {
-							//Couldn't remove the data from the tree
-						}
-					} catch (NoSuchElementException nsee) {
-						//Empty list, no problem
-					}
-				}
-			}
+	/**
+	 * Prints the results of a run.
+	 *
+	 * @param tree The name of the tree
+	 * @param threads The number of threads
+	 * @param result The results of the run
+	 */
+	private static void printResult(String tree, int threads,
+			Workload.Result result) {
+		System.out.printf("%-22s %3d threads  %,14.0f ops/s%n", tree, threads,
+				result.getThroughput());
+		for(int op = 0; op < Workload.OP_NAMES.length; op++) {
+			LatencyHistogram histogram = result.latencies[op];
+			if(histogram.getCount() == 0)
+				continue;
+			System.out.printf("    %-8s n=%-12d p50=%sus p99=%sus " +
+					"p99.9=%sus max=%sus%n", Workload.OP_NAMES[op],
+					histogram.getCount(),
+					micros(histogram.getPercentile(50)),
+					micros(histogram.getPercentile(99)),
+					micros(histogram.getPercentile(99.9)),
+					micros(histogram.getMax()));
 		}
-		
 	}
-	
+
 	/**
-	 * @param args
+	 * @param args Command line arguments, see the class description
 	 */
-	public static void main(String[] args) {
-		ConcurrentBinaryTree<Integer> tree;
-		Thread thread[];
-		int i = 0;
-		int j = 0;
-		long before = 0;
-		long after = 0;
-		
-		//Test the sequential tree
-		System.out.println("Testing the sequential binary tree");
-		tree = new SequentialBinaryTree<Integer>();
-		thread = new Thread[1];
-		thread[0] = new Thread(new TreeTestRunnable(tree));
-		before = System.nanoTime();
-		thread[0].start();
-		try {
-			thread[0].join();
-			after = System.nanoTime();
-		} catch (InterruptedException e) {
-			//Interrupted, stop testing
-			e.printStackTrace();
+	public static void main(String[] args) throws InterruptedException {
+		String[] trees = null;
+		String[] threadCounts = null;
+		String[] mix = {"20", "20", "60"};
+		KeyDistribution distribution = KeyDistribution.UNIFORM;
+		int keyRange = 200000;
+		int prefill = 100000;
+		long warmup = 2;
+		long duration = 10;
+		long seed = System.nanoTime();
+		Workload workload = null;
+		ConcurrentBinaryTree<Integer> instance = null;
+
+		for(String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if(keyValue.length != 2) {
+				System.err.println("Invalid argument: " + arg);
+				System.exit(1);
+			}
+			switch(keyValue[0]) {
+			case "tree":
+				trees = keyValue[1].split(",");
+				break;
+			case "threads":
+				threadCounts = keyValue[1].split(",");
+				break;
+			case "dist":
+				distribution = KeyDistribution.valueOf(keyValue[1]);
+				break;
+			case "mix":
+				mix = keyValue[1].split("/");
+				break;
+			case "keyRange":
+				keyRange = Integer.parseInt(keyValue[1]);
+				break;
+			case "prefill":
+				prefill = Integer.parseInt(keyValue[1]);
+				break;
+			case "warmup":
+				warmup = Long.parseLong(keyValue[1]);
+				break;
+			case "duration":
+				duration = Long.parseLong(keyValue[1]);
+				break;
+			case "seed":
+				seed = Long.parseLong(keyValue[1]);
+				break;
+			default:
+				System.err.println("Unknown argument: " + arg);
+				System.exit(1);
+			}
+		}
+		if(trees == null) {
+			trees = new String[TreeFactory.values().length];
+			for(int i = 0; i < trees.length; i++)
+				trees[i] = TreeFactory.values()[i].name();
+		}
+		if(threadCounts == null) {
+			//Powers of two up to maxThreads
+			threadCounts = new String[32 -
+					Integer.numberOfLeadingZeros(maxThreads)];
+			for(int i = 0; i < threadCounts.length; i++)
+				threadCounts[i] = Integer.toString(1 << i);
+		}
+		if(mix.length != 3) {
+			System.err.println("The mix must be insert/remove/contains");
 			System.exit(1);
 		}
-		System.out.println("Finished testing the sequential binary tree - " 
-				+ (after - before) + " ns");
-		
-		//Test the fine-grained locking tree
-		System.out.println("Testing the fine-grained locking binary tree");
-		tree = new FineGrainedLockingBinaryTree<Integer>();
-		for(i = 1; i <= maxThreads; i++) {
-			thread = new Thread[i];
-			for(j = 0; j < i; j++)
-				thread[j] = new Thread(new TreeTestRunnable(tree));
-			before = System.nanoTime();
-			for(j = 0; j < i; j++)
-				thread[j].start();
-			try {
-				for(j = 0; j < i; j++)
-					thread[j].join();
-				after = System.nanoTime();
-			} catch(InterruptedException e) {
-				//Interrupted, stop testing
-				e.printStackTrace();
-				System.exit(1);
+		if(Integer.parseInt(mix[0]) + Integer.parseInt(mix[1]) +
+				Integer.parseInt(mix[2]) != 100) {
+			System.err.println("The mix must add up to 100: " +
+					String.join("/", mix));
+			System.exit(1);
+		}
+		workload = new Workload(distribution, keyRange, prefill,
+				Integer.parseInt(mix[0]), Integer.parseInt(mix[1]),
+				warmup * 1000, duration * 1000);
+
+		System.out.println("Distribution " + distribution + ", mix " +
+				String.join("/", mix) + ", key range " + keyRange +
+				", prefill " + prefill + ", seed " + seed);
+		for(String tree : trees) {
+			TreeFactory factory = TreeFactory.valueOf(tree);
+			for(String threadCount : threadCounts) {
+				int numThreads = Integer.parseInt(threadCount);
+				if(numThreads > 1 && !factory.isThreadSafe())
+					continue;
+				instance = factory.create(keyRange);
+				printResult(tree, numThreads,
+						workload.run(instance, numThreads, seed));
+				if(instance instanceof DelegatedBinaryTree)
+					((DelegatedBinaryTree<Integer>)instance).close();
 			}
-			System.out.println(i + " threads, " + (after - before) + " ns");
 		}
-		System.out.println("Finished testing the fine-grained locking binary" +
-				" tree");
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+package test_bench;
+
+import concurrent_tree.*;
+
+/**
+ * Tree Factory
+ *
+ * Enumerates every ConcurrentBinaryTree implementation that can be selected
+ * through the "tree" parameter of the TestBench and of the JMH benchmarks,
+ * which share this list.  Each constant knows how to create a fresh, empty
+ * instance of its tree so that every benchmark run starts from the same state.
+ * Trees which aren't thread safe (SEQUENTIAL) may only be run with a single
+ * thread.  The FINE_GRAINED_* constants run the fine-grained
+ * locking tree with each LockStrategy other than the default inline locks;
+ * since that tree locks every node on its path hand-over-hand, they measure
+ * how each kind of lock copes with being acquired and handed down the path.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public enum TreeFactory {
+
+	SEQUENTIAL(false) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new SequentialBinaryTree<Integer>();
+		}
+	},
+	FINE_GRAINED(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FineGrainedLockingBinaryTree<Integer>();
+		}
+	},
+	FINE_GRAINED_REENTRANT(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FineGrainedLockingBinaryTree<Integer>(false,
+					LockStrategy.REENTRANT);
+		}
+	},
+	FINE_GRAINED_TTAS(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FineGrainedLockingBinaryTree<Integer>(false,
+					LockStrategy.TTAS);
+		}
+	},
+	FINE_GRAINED_CLH(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FineGrainedLockingBinaryTree<Integer>(false,
+					LockStrategy.CLH);
+		}
+	},
+	FINE_GRAINED_MCS(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FineGrainedLockingBinaryTree<Integer>(false,
+					LockStrategy.MCS);
+		}
+	},
+	LOCK_FREE(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new LockFreeBinaryTree<Integer>();
+		}
+	},
+	FLAT_COMBINING(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new FlatCombiningBinaryTree<Integer>();
+		}
+	},
+	RELAXED_BALANCE(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new RelaxedBalanceBinaryTree<Integer>();
+		}
+	},
+	OPTIMISTIC(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new OptimisticLockingBinaryTree<Integer>();
+		}
+	},
+	SHARDED(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			Integer[] splitters = new Integer[SHARDS - 1];
+			for(int i = 0; i < splitters.length; i++)
+				splitters[i] = (int)((long)(i + 1) * keyRange / SHARDS);
+			return new ShardedBinaryTree<Integer>(splitters,
+					LockFreeBinaryTree::new);
+		}
+	},
+	PERSISTENT(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new PersistentBinaryTree<Integer>();
+		}
+	},
+	BPLUS(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new OptimisticBPlusTree<Integer>();
+		}
+	},
+	DELEGATED(true) {
+		@Override
+		public ConcurrentBinaryTree<Integer> create(int keyRange) {
+			return new DelegatedBinaryTree<Integer>();
+		}
+	};
+
+	/**
+	 * Number of lock-free shards of the sharded tree, which evenly split the
+	 * key range.
+	 */
+	private static final int SHARDS = 8;
+
+	private final boolean threadSafe;
+
+	private TreeFactory(boolean threadSafe) {
+		this.threadSafe = threadSafe;
+	}
+
+	/**
+	 * Creates a new, empty instance of the tree.
+	 * @param keyRange The keys will be drawn from [0, keyRange), which places
+	 * the splitters of the sharded tree
+	 * @return The new tree
+	 */
+	public abstract ConcurrentBinaryTree<Integer> create(int keyRange);
+
+	/**
+	 * Returns whether or not the tree may be used by more than one thread.
+	 * @return True if the tree is safe for concurrent use, false otherwise
+	 */
+	public boolean isThreadSafe() {
+		return threadSafe;
+	}
+}
@@ -0,0 +1,228 @@
+package test_bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+import concurrent_tree.ConcurrentBinaryTree;
+import test_bench.KeyDistribution.KeyGenerator;
+
+/**
+ * Workload
+ *
+ * Configurable workload driver for the trees.  A run prefills the tree with
+ * keys drawn uniformly from the key range, then starts the worker threads,
+ * which perform a random mix of inserts, removes and contains on keys drawn
+ * from the configured distribution until the run's duration is up.  Every
+ * operation is timed; latencies are only recorded after the warmup period, so
+ * that JIT compilation doesn't show up in the tail.  Each thread records into
+ * its own histograms and the histograms are merged at the end.
+ *
+ * @author Rob Lyerly <rlyerly@vt.edu>
+ */
+public class Workload {
+
+	/**
+	 * Operation types, indexing the per-operation histograms.
+	 */
+	public static final int INSERT = 0;
+	public static final int REMOVE = 1;
+	public static final int CONTAINS = 2;
+	public static final String[] OP_NAMES = {"insert", "remove", "contains"};
+
+	/**
+	 * Local variables and definitions.
+	 */
+	final KeyDistribution distribution;
+	final int keyRange;
+	final int prefill;
+	final int insertPercent;
+	final int removePercent;
+	final long warmupMillis;
+	final long durationMillis;
+	volatile boolean measuring;
+	volatile boolean running;
+
+	/**
+	 * Creates a workload.
+	 *
+	 * @param distribution The distribution keys are drawn from
+	 * @param keyRange The number of distinct keys
+	 * @param prefill The number of keys inserted before the run starts
+	 * @param insertPercent The percentage of operations which are inserts
+	 * @param removePercent The percentage of operations which are removes; the
+	 * rest are contains
+	 * @param warmupMillis How long to run before recording latencies
+	 * @param durationMillis How long to record latencies for
+	 */
+	public Workload(KeyDistribution distribution, int keyRange, int prefill,
+			int insertPercent, int removePercent, long warmupMillis,
+			long durationMillis) {
+		if(keyRange <= 0 || prefill < 0 || prefill > keyRange)
+			throw new IllegalArgumentException("Invalid prefill " + prefill +
+					" for a key range of " + keyRange);
+		if(insertPercent < 0 || removePercent < 0 ||
+				insertPercent + removePercent > 100)
+			throw new IllegalArgumentException("Invalid operation mix " +
+					insertPercent + "/" + removePercent);
+		this.distribution = distribution;
+		this.keyRange = keyRange;
+		this.prefill = prefill;
+		this.insertPercent = insertPercent;
+		this.removePercent = removePercent;
+		this.warmupMillis = warmupMillis;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Results of a run.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	public static class Result {
+
+		/**
+		 * Latencies of each operation type, indexed by INSERT, REMOVE and
+		 * CONTAINS.
+		 */
+		public final LatencyHistogram[] latencies;
+		public final long elapsedNanos;
+
+		Result(LatencyHistogram[] latencies, long elapsedNanos) {
+			this.latencies = latencies;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * Returns the number of operations completed per second while
+		 * latencies were being recorded.
+		 * @return The throughput in operations per second
+		 */
+		public double getThroughput() {
+
+			long ops = 0;
+
+			for(LatencyHistogram histogram : latencies)
+				ops += histogram.getCount();
+			return ops * 1e9 / elapsedNanos;
+		}
+	}
+
+	/**
+	 * Worker thread performing the operation mix.
+	 *
+	 * @author Rob Lyerly <rlyerly@vt.edu>
+	 */
+	private class Worker implements Runnable {
+
+		final ConcurrentBinaryTree<Integer> tree;
+		final KeyGenerator keys;
+		final SplittableRandom rand;
+		final CountDownLatch start;
+		final LatencyHistogram[] latencies;
+
+		Worker(ConcurrentBinaryTree<Integer> tree, int thread, int threads,
+				long seed, CountDownLatch start) {
+			this.tree = tree;
+			this.start = start;
+			keys = distribution.generator(keyRange, thread, threads, seed);
+			rand = new SplittableRandom(seed ^ 0x5deece66dL);
+			latencies = new LatencyHistogram[OP_NAMES.length];
+			for(int i = 0; i < latencies.length; i++)
+				latencies[i] = new LatencyHistogram();
+		}
+
+		@Override
+		public void run() {
+
+			int op = 0, choice = 0;
+			Integer key = null;
+			long before = 0, after = 0;
+
+			try {
+				start.await();
+			} catch(InterruptedException e) {
+				return;
+			}
+			while(running) {
+				key = keys.nextKey();
+				choice = rand.nextInt(100);
+				before = System.nanoTime();
+				if(choice < insertPercent) {
+					op = INSERT;
+					tree.insert(key);
+				} else if(choice < insertPercent + removePercent) {
+					op = REMOVE;
+					tree.remove(key);
+				} else {
+					op = CONTAINS;
+					tree.contains(key);
+				}
+				after = System.nanoTime();
+				if(measuring)
+					latencies[op].record(after - before);
+			}
+		}
+	}
+
+	/**
+	 * Prefills the tree with keys drawn uniformly from the key range.
+	 *
+	 * @param tree The tree to fill
+	 * @param seed Seed for the random number generator
+	 */
+	void prefill(ConcurrentBinaryTree<Integer> tree, long seed) {
+
+		SplittableRandom rand = new SplittableRandom(seed);
+
+		while(tree.size() < prefill)
+			tree.insert(rand.nextInt(keyRange));
+	}
+
+	/**
+	 * Prefills a tree and runs the workload on it.
+	 *
+	 * @param tree The tree to run the workload on, which should be empty
+	 * @param threads The number of worker threads
+	 * @param seed Seed for the random number generators, so runs can be
+	 * repeated
+	 * @return The results of the run
+	 * @throws InterruptedException If interrupted while waiting for the run
+	 */
+	public Result run(ConcurrentBinaryTree<Integer> tree, int threads,
+			long seed) throws InterruptedException {
+
+		Thread[] thread = new Thread[threads];
+		Worker[] worker = new Worker[threads];
+		CountDownLatch start = new CountDownLatch(1);
+		LatencyHistogram[] latencies = new LatencyHistogram[OP_NAMES.length];
+		long before = 0, after = 0;
+
+		prefill(tree, seed);
+		measuring = false;
+		running = true;
+		for(int i = 0; i < threads; i++) {
+			worker[i] = new Worker(tree, i, threads, seed + i + 1, start);
+			thread[i] = new Thread(worker[i], "workload-" + i);
+			thread[i].start();
+		}
+
+		//Warm up, then record for the duration of the run
+		start.countDown();
+		Thread.sleep(warmupMillis);
+		before = System.nanoTime();
+		measuring = true;
+		Thread.sleep(durationMillis);
+		measuring = false;
+		after = System.nanoTime();
+		running = false;
+		for(int i = 0; i < threads; i++)
+			thread[i].join();
+
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+			for(Worker w : worker)
+				latencies[i].add(w.latencies[i]);
+		}
+		return new Result(latencies, after - before);
+	}
+}